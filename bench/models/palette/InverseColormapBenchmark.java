@@ -0,0 +1,87 @@
+package models.palette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ColorMath;
+import utils.LabTable;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares InverseColormap lookups with the linear CIE76 scan they replace, on random colors, as the palette grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InverseColormapBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"16", "64", "256"})
+    public int paletteSize;
+
+    private int[] colors;
+    private InverseColormap colormap;
+    private int[] queries;
+    private int next;
+
+    /**
+     * Build the colormap of a random palette and prepare random query colors.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        colors = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++)
+            colors[i] = random.nextInt(0x1000000);
+        colormap = new InverseColormap(colors);
+
+        queries = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+            queries[i] = random.nextInt(0x1000000);
+    }
+
+    @Benchmark
+    public int colormap() {
+        return colormap.nearestIndex(nextQuery());
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int rgb = nextQuery();
+        float l = LabTable.lightness(rgb), a = LabTable.a(rgb), b = LabTable.b(rgb);
+        int nearest = 0;
+        double min = Double.MAX_VALUE;
+        for (int j = 0; j < colors.length; j++) {
+            double diff = ColorMath.cie76(l, a, b, LabTable.lightness(colors[j]), LabTable.a(colors[j]),
+                    LabTable.b(colors[j]));
+            if (diff < min) {
+                min = diff;
+                nearest = j;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Cycle through the query colors.
+     *
+     * @return next query color
+     */
+    private int nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return queries[next];
+    }
+}
@@ -0,0 +1,96 @@
+package models.palette;
+
+import models.Pixel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Lab grid behind Palette.findSimilar() with the linear nearestColor() scan as the palette grows, and
+ * the lock-free lookups of ConcurrentPalette and the per-hue ramps of GradientPalette with the plain grid.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PaletteBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"16", "256", "4096"})
+    public int paletteSize;
+
+    private Palette palette;
+    private ConcurrentPalette concurrentPalette;
+    private GradientPalette gradientPalette;
+    private List<Pixel> colors;
+    private Pixel[] queries;
+    private int next;
+
+    /**
+     * Fill the palette with random colors and prepare random query colors.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        palette = new Palette();
+        concurrentPalette = new ConcurrentPalette();
+        gradientPalette = new GradientPalette();
+        colors = new ArrayList<>();
+        for (int i = 0; i < paletteSize; i++) {
+            Pixel color = new Pixel(random.nextInt(0x1000000));
+            palette.add(color);
+            concurrentPalette.add(color);
+            gradientPalette.add(color);
+            colors.add(color);
+        }
+
+        queries = new Pixel[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+            queries[i] = new Pixel(random.nextInt(0x1000000));
+    }
+
+    @Benchmark
+    public Pixel indexed() {
+        return palette.findSimilar(nextQuery());
+    }
+
+    @Benchmark
+    public Pixel concurrent() {
+        return concurrentPalette.findSimilar(nextQuery());
+    }
+
+    @Benchmark
+    public Pixel gradient() {
+        return gradientPalette.findSimilar(nextQuery());
+    }
+
+    @Benchmark
+    public Pixel linearScan() {
+        return Palette.nearestColor(nextQuery(), colors);
+    }
+
+    /**
+     * Cycle through the query colors.
+     *
+     * @return next query color
+     */
+    private Pixel nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return queries[next];
+    }
+}
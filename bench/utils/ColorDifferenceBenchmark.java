@@ -0,0 +1,138 @@
+package utils;
+
+import models.palette.Palette;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per color comparison on the primitive paths used by the filters and palettes: packed RGB ints, Lab
+ * values read from LabTable, and the nearest color search over a candidate array. Run through main() so the GC
+ * profiler reports gc.alloc.rate.norm, which should be 0 B/op for every benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColorDifferenceBenchmark {
+    private static final int PAIRS = 1024;
+    private static final int CANDIDATES = 4;
+
+    @Param({ColorMathCheck.UNIFORM, ColorMathCheck.NEIGHBORS})
+    public String distribution;
+
+    private int[] first, second;
+    private float[] firstLab, secondLab;
+    private int[] candidates;
+    private int next;
+
+    /**
+     * Draw the input pairs and preconvert them to Lab.
+     */
+    @Setup
+    public void setup() {
+        int[][] pairs = ColorMathCheck.pairs(distribution, PAIRS, 42);
+        first = pairs[0];
+        second = pairs[1];
+
+        firstLab = new float[3 * PAIRS];
+        secondLab = new float[3 * PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            firstLab[3 * i] = LabTable.lightness(first[i]);
+            firstLab[3 * i + 1] = LabTable.a(first[i]);
+            firstLab[3 * i + 2] = LabTable.b(first[i]);
+            secondLab[3 * i] = LabTable.lightness(second[i]);
+            secondLab[3 * i + 1] = LabTable.a(second[i]);
+            secondLab[3 * i + 2] = LabTable.b(second[i]);
+        }
+
+        candidates = new int[CANDIDATES];
+        System.arraycopy(second, 0, candidates, 0, CANDIDATES);
+    }
+
+    @Benchmark
+    public int colorDifferenceScale() {
+        int i = nextPair();
+        return ColorMath.colorDifferenceScale(first[i], second[i]).ordinal();
+    }
+
+    @Benchmark
+    public double cie76Packed() {
+        int i = nextPair();
+        return ColorMath.cie76(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double cie94Packed() {
+        int i = nextPair();
+        return ColorMath.cie94(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double ciede2000Packed() {
+        int i = nextPair();
+        return ColorMath.ciede2000(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double cie76Lab() {
+        int i = 3 * nextPair();
+        return ColorMath.cie76(firstLab[i], firstLab[i + 1], firstLab[i + 2],
+                secondLab[i], secondLab[i + 1], secondLab[i + 2]);
+    }
+
+    @Benchmark
+    public double ciede2000Lab() {
+        int i = 3 * nextPair();
+        return ColorMath.ciede2000(firstLab[i], firstLab[i + 1], firstLab[i + 2],
+                secondLab[i], secondLab[i + 1], secondLab[i + 2]);
+    }
+
+    @Benchmark
+    public int nearestIndex() {
+        return Palette.nearestIndex(first[nextPair()], candidates, CANDIDATES);
+    }
+
+    /**
+     * Cycle through the input pairs.
+     *
+     * @return index of the next pair
+     */
+    private int nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return next;
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler.
+     *
+     * @param args JMH command line options
+     * @throws RunnerException            if a benchmark fails to run
+     * @throws CommandLineOptionException if the options cannot be parsed
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ColorDifferenceBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,175 @@
+package utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per call of the ColorMath kernels at the heart of every filter. Inputs cycle through pairs of colors drawn
+ * from a realistic distribution, and the kernels are cross-checked against ColorMathReference before anything is
+ * measured. Run through main() to also get the allocation per call from the GC profiler (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColorMathBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({ColorMathCheck.UNIFORM, ColorMathCheck.NEIGHBORS})
+    public String distribution;
+
+    private int[] first, second;
+    private double[][] firstChannels, secondChannels;
+    private int[][] firstIntChannels, secondIntChannels;
+    private int next;
+
+    /**
+     * Draw the input pairs and check the kernels on them.
+     */
+    @Setup
+    public void setup() {
+        int[][] pairs = ColorMathCheck.pairs(distribution, PAIRS, 42);
+        first = pairs[0];
+        second = pairs[1];
+        ColorMathCheck.verify(first, second);
+
+        firstChannels = new double[PAIRS][];
+        secondChannels = new double[PAIRS][];
+        firstIntChannels = new int[PAIRS][];
+        secondIntChannels = new int[PAIRS][];
+        for (int i = 0; i < PAIRS; i++) {
+            firstChannels[i] = ColorMathCheck.channels(first[i]);
+            secondChannels[i] = ColorMathCheck.channels(second[i]);
+            firstIntChannels[i] = ColorMathCheck.intChannels(first[i]);
+            secondIntChannels[i] = ColorMathCheck.intChannels(second[i]);
+        }
+    }
+
+    @Benchmark
+    public double cie76() {
+        int i = nextPair();
+        return ColorMath.cie76(firstChannels[i], secondChannels[i]);
+    }
+
+    @Benchmark
+    public double cie76Packed() {
+        int i = nextPair();
+        return ColorMath.cie76(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double cie94() {
+        int i = nextPair();
+        return ColorMath.cie94(firstChannels[i], secondChannels[i]);
+    }
+
+    @Benchmark
+    public double cie94Packed() {
+        int i = nextPair();
+        return ColorMath.cie94(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double ciede2000() {
+        int i = nextPair();
+        return ColorMath.ciede2000(firstChannels[i], secondChannels[i]);
+    }
+
+    @Benchmark
+    public double ciede2000Packed() {
+        int i = nextPair();
+        return ColorMath.ciede2000(first[i], second[i]);
+    }
+
+    @Benchmark
+    public double[] rgbToLab() {
+        return ColorMath.rgbToLab(firstChannels[nextPair()]);
+    }
+
+    @Benchmark
+    public double[] rgbToLabPacked() {
+        return ColorMath.rgbToLab(first[nextPair()]);
+    }
+
+    @Benchmark
+    public float labTable() {
+        int rgb = first[nextPair()];
+        return LabTable.lightness(rgb) + LabTable.a(rgb) + LabTable.b(rgb);
+    }
+
+    @Benchmark
+    public double[] rgbToXyz() {
+        double[] rgb = firstChannels[nextPair()];
+        return ColorMath.rgbToXyz(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Benchmark
+    public int changeSaturation() {
+        return ColorMath.changeSaturation(firstIntChannels[nextPair()], 1.5f);
+    }
+
+    @Benchmark
+    public int changeContrast() {
+        return ColorMath.changeContrast(firstIntChannels[nextPair()], 20);
+    }
+
+    @Benchmark
+    public int saturationLut() {
+        return PictureFilter.getSaturationLut().apply(first[nextPair()]);
+    }
+
+    @Benchmark
+    public int contrastLut() {
+        return PictureFilter.getContrastLut().apply(first[nextPair()]);
+    }
+
+    @Benchmark
+    public int[] generateGradient() {
+        int i = nextPair();
+        return ColorMath.generateGradient(firstIntChannels[i], secondIntChannels[i], 16);
+    }
+
+    /**
+     * Cycle through the input pairs.
+     *
+     * @return index of the next pair
+     */
+    private int nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return next;
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler.
+     *
+     * @param args JMH command line options
+     * @throws RunnerException            if a benchmark fails to run
+     * @throws CommandLineOptionException if the options cannot be parsed
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ColorMathBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,151 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * Cross-checks the live ColorMath kernels against the frozen ColorMathReference on the benchmark inputs. Paths that
+ * compute in doubles must match the reference exactly, paths reading the float Lab table must match within
+ * LAB_TABLE_TOLERANCE. ColorMathBenchmark runs the check before measuring, and main() runs it on its own.
+ */
+final class ColorMathCheck {
+    static final String UNIFORM = "uniform", NEIGHBORS = "neighbors";
+
+    // Largest delta E difference allowed between a float Lab table path and the double reference.
+    private static final double LAB_TABLE_TOLERANCE = 1e-2;
+    private static final int NEIGHBOR_SPREAD = 8;
+
+    private ColorMathCheck() {
+    }
+
+    /**
+     * Draw pairs of packed RGB colors. "uniform" pairs are independent random colors, the worst case for palettes;
+     * "neighbors" pairs differ by a few levels per channel, like adjacent pixels compared by the filters.
+     *
+     * @param distribution UNIFORM or NEIGHBORS
+     * @param count        number of pairs
+     * @param seed         random seed
+     * @return {first colors, second colors}
+     */
+    static int[][] pairs(String distribution, int count, long seed) {
+        Random random = new Random(seed);
+        int[] first = new int[count], second = new int[count];
+        for (int i = 0; i < count; i++) {
+            first[i] = random.nextInt(0x1000000);
+            switch (distribution) {
+                case UNIFORM:
+                    second[i] = random.nextInt(0x1000000);
+                    break;
+                case NEIGHBORS:
+                    int rgb = 0;
+                    for (int shift = 16; shift >= 0; shift -= 8) {
+                        int channel = ((first[i] >> shift) & 0xFF)
+                                + random.nextInt(2 * NEIGHBOR_SPREAD + 1) - NEIGHBOR_SPREAD;
+                        rgb |= Math.max(0, Math.min(255, channel)) << shift;
+                    }
+                    second[i] = rgb;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        }
+        return new int[][]{first, second};
+    }
+
+    /**
+     * Check every kernel on the given pairs.
+     *
+     * @param first  first colors, packed RGB
+     * @param second second colors, packed RGB
+     * @throws IllegalStateException on the first mismatch
+     */
+    static void verify(int[] first, int[] second) {
+        for (int i = 0; i < first.length; i++) {
+            int rgb1 = first[i], rgb2 = second[i];
+            double[] c1 = channels(rgb1), c2 = channels(rgb2);
+            int[] i1 = intChannels(rgb1), i2 = intChannels(rgb2);
+
+            exact("cie76", ColorMathReference.cie76(c1, c2), ColorMath.cie76(c1, c2));
+            exact("cie94", ColorMathReference.cie94(c1, c2), ColorMath.cie94(c1, c2));
+            exact("ciede2000", ColorMathReference.ciede2000(c1, c2), ColorMath.ciede2000(c1, c2));
+            close("cie76 packed", ColorMathReference.cie76(c1, c2), ColorMath.cie76(rgb1, rgb2));
+            close("cie94 packed", ColorMathReference.cie94(c1, c2), ColorMath.cie94(rgb1, rgb2));
+            close("ciede2000 packed", ColorMathReference.ciede2000(c1, c2), ColorMath.ciede2000(rgb1, rgb2));
+
+            double[] lab = ColorMathReference.rgbToLab(c1), labLive = ColorMath.rgbToLab(c1);
+            double[] labTable = {LabTable.lightness(rgb1), LabTable.a(rgb1), LabTable.b(rgb1)};
+            double[] xyz = ColorMathReference.rgbToXyz(c1[0], c1[1], c1[2]);
+            double[] xyzLive = ColorMath.rgbToXyz(c1[0], c1[1], c1[2]);
+            for (int c = 0; c < 3; c++) {
+                exact("rgbToLab", lab[c], labLive[c]);
+                close("LabTable", lab[c], labTable[c]);
+                exact("rgbToXyz", xyz[c], xyzLive[c]);
+            }
+
+            exact("changeSaturation", ColorMathReference.changeSaturation(i1, 1.5f),
+                    ColorMath.changeSaturation(i1, 1.5f));
+            exact("changeContrast", ColorMathReference.changeContrast(i1, 20), ColorMath.changeContrast(i1, 20));
+
+            int[] gradient = ColorMathReference.generateGradient(i1, i2, 16);
+            int[] gradientLive = ColorMath.generateGradient(i1, i2, 16);
+            for (int step = 0; step < gradient.length; step++)
+                exact("generateGradient", gradient[step], gradientLive[step]);
+        }
+    }
+
+    /**
+     * Split a packed RGB color into double channels.
+     *
+     * @param rgb packed RGB value
+     * @return {r, g, b}
+     */
+    static double[] channels(int rgb) {
+        return new double[]{(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
+    }
+
+    /**
+     * Split a packed RGB color into int channels.
+     *
+     * @param rgb packed RGB value
+     * @return {r, g, b}
+     */
+    static int[] intChannels(int rgb) {
+        return new int[]{(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
+    }
+
+    /**
+     * Require two values to be identical. NaN matches NaN.
+     *
+     * @param kernel   name of the kernel checked
+     * @param expected reference value
+     * @param actual   live value
+     */
+    private static void exact(String kernel, double expected, double actual) {
+        if (Double.compare(expected, actual) != 0)
+            throw new IllegalStateException(kernel + ": expected " + expected + " but got " + actual);
+    }
+
+    /**
+     * Require two values to be within LAB_TABLE_TOLERANCE.
+     *
+     * @param kernel   name of the kernel checked
+     * @param expected reference value
+     * @param actual   live value
+     */
+    private static void close(String kernel, double expected, double actual) {
+        if (!(Math.abs(expected - actual) <= LAB_TABLE_TOLERANCE))
+            throw new IllegalStateException(kernel + ": expected " + expected + " but got " + actual);
+    }
+
+    /**
+     * Run the check on both distributions.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        for (String distribution : new String[]{UNIFORM, NEIGHBORS}) {
+            int[][] pairs = pairs(distribution, 1 << 16, 42);
+            verify(pairs[0], pairs[1]);
+            System.out.println(distribution + ": OK");
+        }
+    }
+}
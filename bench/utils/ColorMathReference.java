@@ -0,0 +1,248 @@
+package utils;
+
+import java.awt.Color;
+
+/**
+ * Frozen copy of the ColorMath kernels as they were when the benchmarks were written. ColorMathCheck compares the
+ * live implementations against these, so a faster variant can replace a kernel only if it still gives the same
+ * results. Do not optimize this class.
+ */
+final class ColorMathReference {
+    private static final double REF_X = 95.047, REF_Y = 100.000, REF_Z = 108.883;
+
+    private ColorMathReference() {
+    }
+
+    /**
+     * Reference generateGradient().
+     *
+     * @param startRGB start color in RGB
+     * @param endRGB   end color in RGB
+     * @param steps    number of gradient steps
+     * @return array of RGB values that represent the gradient
+     */
+    static int[] generateGradient(int[] startRGB, int[] endRGB, int steps) {
+        float[] startHSB = Color.RGBtoHSB(startRGB[0], startRGB[1], startRGB[2], null);
+        float[] endHSB = Color.RGBtoHSB(endRGB[0], endRGB[1], endRGB[2], null);
+
+        int[] gradient = new int[steps];
+        for (int i = 0; i < steps; i++) {
+            float h = linearInterpolate(startHSB[0], endHSB[0], steps - 1, i);
+            float s = linearInterpolate(startHSB[1], endHSB[1], steps - 1, i);
+            float b = linearInterpolate(startHSB[2], endHSB[2], steps - 1, i);
+            gradient[i] = Color.HSBtoRGB(h, s, b);
+        }
+        return gradient;
+    }
+
+    /**
+     * Reference changeContrast().
+     *
+     * @param rgb      color to change
+     * @param contrast contrast value
+     * @return rgb value of contrasted color
+     */
+    static int changeContrast(int[] rgb, int contrast) {
+        double factor = (259.0 * (contrast + 255)) / (255.0 * (259 - contrast));
+        int newRed = (int) clamp((factor * rgb[0] - 128) + 128, 255);
+        int newGreen = (int) clamp((factor * rgb[1] - 128) + 128, 255);
+        int newBlue = (int) clamp((factor * rgb[2] - 128) + 128, 255);
+        return new Color(newRed, newGreen, newBlue).getRGB();
+    }
+
+    /**
+     * Reference changeSaturation().
+     *
+     * @param rgb    color to change
+     * @param change change made to color
+     * @return rgb value of saturated color
+     */
+    static int changeSaturation(int[] rgb, float change) {
+        float[] hsb = Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], null);
+        return Color.HSBtoRGB(hsb[0], (float) clamp(hsb[1] * change, 1), hsb[2]);
+    }
+
+    /**
+     * Reference cie76().
+     *
+     * @param rgb1 first color
+     * @param rgb2 second color
+     * @return delta Eab
+     */
+    static double cie76(double[] rgb1, double[] rgb2) {
+        double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        return Math.sqrt(Math.pow(lab2[0] - lab1[0], 2) + Math.pow(lab2[1] - lab1[1], 2)
+                + Math.pow(lab2[2] - lab1[2], 2));
+    }
+
+    /**
+     * Reference cie94().
+     *
+     * @param rgb1 first color
+     * @param rgb2 second color
+     * @return delta E94
+     */
+    static double cie94(double[] rgb1, double[] rgb2) {
+        double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        double deltaL = lab1[0] - lab2[0],
+                deltaA = lab1[1] - lab2[1],
+                deltaB = lab1[2] - lab2[2];
+
+        double c1 = Math.sqrt(Math.pow(lab1[1], 2) + Math.pow(lab1[2], 2)),
+                c2 = Math.sqrt(Math.pow(lab2[1], 2) + Math.pow(lab2[2], 2)),
+                deltaC = c1 - c2,
+                deltaH = Math.sqrt(Math.pow(deltaA, 2) + Math.pow(deltaB, 2) - Math.pow(deltaC, 2));
+
+        double sc = 1 + (0.045 * c1),
+                sh = 1 + (0.015 * c1);
+
+        return Math.sqrt(Math.pow(deltaL, 2) + Math.pow(deltaC / sc, 2) + Math.pow(deltaH / sh, 2));
+    }
+
+    /**
+     * Reference ciede2000(), including its use of degrees in the trigonometric terms.
+     *
+     * @param rgb1 first color
+     * @param rgb2 second color
+     * @return delta E
+     */
+    static double ciede2000(double[] rgb1, double[] rgb2) {
+        double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        double a1 = lab1[1], a2 = lab2[1], b1 = lab1[2], b2 = lab2[2];
+
+        double c1 = Math.sqrt(Math.pow(a1, 2) + Math.pow(b1, 2)),
+                c2 = Math.sqrt(Math.pow(a2, 2) + Math.pow(b2, 2));
+        double cMeanPow7 = Math.pow((c1 + c2) / 2, 7);
+        double g = 0.5 * (1 - Math.sqrt(cMeanPow7 / (cMeanPow7 + Math.pow(25, 7))));
+
+        double aPrime1 = (1 + g) * a1,
+                aPrime2 = (1 + g) * a2;
+        double[] cPrime = {Math.sqrt(Math.pow(aPrime1, 2) + Math.pow(b1, 2)),
+                Math.sqrt(Math.pow(aPrime2, 2) + Math.pow(b2, 2))};
+        double[] hPrime = {(b1 == aPrime1) ? 0 : Math.toDegrees(Math.atan2(b1, aPrime1)),
+                (b2 == aPrime2) ? 0 : Math.toDegrees(Math.atan2(b2, aPrime2))};
+
+        double deltaL = lab2[0] - lab1[0],
+                deltaC = cPrime[1] - cPrime[0];
+        double deltaH;
+        if (cPrime[0] * cPrime[1] == 0)
+            deltaH = 0;
+        else if (Math.abs(hPrime[1] - hPrime[0]) <= 180)
+            deltaH = hPrime[1] - hPrime[0];
+        else if (hPrime[1] - hPrime[0] > 180)
+            deltaH = hPrime[1] - hPrime[0] - 360;
+        else
+            deltaH = hPrime[1] - hPrime[0] + 360;
+        deltaH = 2 * (Math.sqrt(cPrime[0] * cPrime[1])) * Math.sin(deltaH / 2);
+
+        double lMean = (lab1[0] + lab2[0]) / 2,
+                cMean = (cPrime[1] + cPrime[0]) / 2;
+
+        double hMean;
+        if (cPrime[0] * cPrime[1] == 0)
+            hMean = hPrime[0] + hPrime[1];
+        else if (Math.abs(hPrime[0] - hPrime[1]) <= 180)
+            hMean = (hPrime[0] + hPrime[1]) / 2;
+        else if (Math.abs(hPrime[0] - hPrime[1]) > 180)
+            hMean = (hPrime[0] + hPrime[1] + 360) / 2;
+        else
+            hMean = (hPrime[0] + hPrime[1] - 360) / 2;
+
+        double t = 1 - (0.17 * Math.cos(hMean - 30)) + (0.24 * Math.cos(2 * hMean) +
+                (0.32 * Math.cos(3 * hMean + 6) - (0.20 * Math.cos(4 * hMean - 63)))),
+                deltaTheta = 30 * Math.exp(-1 * Math.pow((hMean - 275) / 25, 2)),
+                rc = 2 * Math.sqrt(Math.pow(cMean, 7) / (Math.pow(cMean, 7) + Math.pow(25, 7))),
+                sl = 1 + ((0.015 * Math.pow(lMean - 50, 2)) / Math.sqrt(20 + Math.pow(lMean - 50, 2))),
+                sc = 1 + (0.045 * cMean),
+                sh = 1 + (0.015 * cMean * t),
+                rr = -1 * Math.sin(2 * deltaTheta) * rc;
+        return Math.sqrt(Math.pow(deltaL / sl, 2) + Math.pow(deltaC / sc, 2) + Math.pow(deltaH / sh, 2) + (rr *
+                (deltaC / sc) * (deltaH / sh)));
+    }
+
+    /**
+     * Reference rgbToLab().
+     *
+     * @param rgb array {r, g, b}
+     * @return array {l, a, b}
+     */
+    static double[] rgbToLab(double[] rgb) {
+        double[] xyz = rgbToXyz(rgb[0], rgb[1], rgb[2]);
+        double varX = transformXyz(xyz[0], REF_X),
+                varY = transformXyz(xyz[1], REF_Y),
+                varZ = transformXyz(xyz[2], REF_Z);
+        return new double[]{(116 * varY) - 16, 500 * (varX - varY), 200 * (varY - varZ)};
+    }
+
+    /**
+     * Reference rgbToXyz().
+     *
+     * @param r red value
+     * @param g green value
+     * @param b blue value
+     * @return array {x, y, z}
+     */
+    static double[] rgbToXyz(double r, double g, double b) {
+        double varR = transformRgb(r),
+                varG = transformRgb(g),
+                varB = transformRgb(b);
+
+        return new double[]{varR * 0.4124 + varG * 0.3576 + varB * 0.1805,
+                varR * 0.2126 + varG * 0.7152 + varB * 0.0722,
+                varR * 0.0193 + varG * 0.1192 + varB * 0.9505};
+    }
+
+    /**
+     * Reference sRGB companding.
+     *
+     * @param color rgb color value
+     * @return linear value, from 0 to 100
+     */
+    private static double transformRgb(double color) {
+        double result = color / 255;
+        if (result > 0.04045)
+            result = Math.pow((result + 0.055) / 1.055, 2.4);
+        else
+            result /= 12.92;
+        return result * 100;
+    }
+
+    /**
+     * Reference Lab companding.
+     *
+     * @param color xyz color value
+     * @param ref   reference white
+     * @return transformed value
+     */
+    private static double transformXyz(double color, double ref) {
+        double result = color / ref;
+        if (result > 0.008856)
+            return Math.pow(result, 1.0 / 3.0);
+        return (7.787 * result) + (16.0 / 116.0);
+    }
+
+    /**
+     * Reference HSB interpolation.
+     *
+     * @param start start component
+     * @param end   end component
+     * @param steps total number of steps
+     * @param step  current step
+     * @return interpolated component
+     */
+    private static float linearInterpolate(float start, float end, int steps, int step) {
+        float p = (float) step / steps;
+        return (float) clamp((end * p) + (start * (1 - p)), 1);
+    }
+
+    /**
+     * Clamp a component to [0, max].
+     *
+     * @param component value of component
+     * @param max       upper bound
+     * @return clamped value
+     */
+    private static double clamp(double component, double max) {
+        return component > max ? max : component < 0 ? 0 : component;
+    }
+}
@@ -0,0 +1,156 @@
+package utils;
+
+import models.Picture;
+import models.palette.InverseColormap;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Cross-checks the wavefront ErrorDiffusion against a plain serial implementation, pixel by pixel in row-major
+ * order, on random pictures of many shapes and pools of many sizes. The output must be identical, whatever the number
+ * of workers, so any change to the chunk size, the margin or the sizing of the error ring can be re-verified by
+ * running main().
+ */
+final class ErrorDiffusionCheck {
+    // Shapes covering single pixels, single rows and columns, odd sizes, and pictures much taller than the ring.
+    private static final int[][] SIZES = {{1, 1}, {2, 1}, {1, 7}, {5, 3}, {64, 1}, {63, 65}, {200, 150}, {301, 97},
+            {64, 500}, {1000, 700}};
+    private static final int[] POOL_SIZES = {1, 2, 3, 8, 32};
+
+    // PICO-8 palette, and a palette of random colors.
+    private static final int[] PICO_8 = {0x000000, 0x1D2B53, 0x7E2553, 0x008751, 0xAB5236, 0x5F574F, 0xC2C3C7,
+            0xFFF1E8, 0xFF004D, 0xFFA300, 0xFFEC27, 0x00E436, 0x29ADFF, 0x83769C, 0xFF77A8, 0xFFCCAA};
+    private static final int RANDOM_COLORS = 64;
+
+    private ErrorDiffusionCheck() {
+    }
+
+    /**
+     * Get the kernel of a diffusion, written out independently of ErrorDiffusion.
+     *
+     * @param diffusion error diffusion
+     * @return {column offset, row offset, weight} of every neighbor, the divisor last as {0, 0, divisor}
+     */
+    private static int[][] kernel(ErrorDiffusion diffusion) {
+        switch (diffusion) {
+            case FLOYD_STEINBERG:
+                return new int[][]{{1, 0, 7}, {-1, 1, 3}, {0, 1, 5}, {1, 1, 1}, {0, 0, 16}};
+            case ATKINSON:
+                return new int[][]{{1, 0, 1}, {2, 0, 1}, {-1, 1, 1}, {0, 1, 1}, {1, 1, 1}, {0, 2, 1}, {0, 0, 8}};
+            default:
+                throw new IllegalArgumentException("Unknown diffusion " + diffusion);
+        }
+    }
+
+    /**
+     * Dither a picture serially, with one error accumulator per pixel. Errors are integer numerators, rounded to the
+     * nearest level when a pixel is reached, as in ErrorDiffusion.
+     *
+     * @param diffusion error diffusion
+     * @param raster    packed ARGB raster, with stride equal to the width
+     * @param width     width of the picture
+     * @param height    height of the picture
+     * @param colormap  inverse colormap of the palette
+     * @return packed ARGB raster of the dithered picture
+     */
+    static int[] reference(ErrorDiffusion diffusion, int[] raster, int width, int height, InverseColormap colormap) {
+        int[][] kernel = kernel(diffusion);
+        int divisor = kernel[kernel.length - 1][2];
+        int[][] errors = new int[height][3 * width];
+        int[] result = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] channels = new int[3];
+                for (int c = 0; c < 3; c++) {
+                    int channel = raster[y * width + x] >> (16 - 8 * c) & 0xFF;
+                    int error = Math.floorDiv(errors[y][3 * x + c] + divisor / 2, divisor);
+                    channels[c] = Math.max(0, Math.min(255, channel + error));
+                }
+                int nearest = colormap.nearestColor(channels[0] << 16 | channels[1] << 8 | channels[2]);
+                result[y * width + x] = nearest;
+
+                for (int k = 0; k < kernel.length - 1; k++) {
+                    int column = x + kernel[k][0], row = y + kernel[k][1];
+                    if (column < 0 || column >= width || row >= height)
+                        continue;
+                    for (int c = 0; c < 3; c++)
+                        errors[row][3 * column + c] += (channels[c] - (nearest >> (16 - 8 * c) & 0xFF)) * kernel[k][2];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check every diffusion on a random picture of every size, with every pool size.
+     *
+     * @param colormap inverse colormap of the palette
+     * @param seed     random seed of the pictures
+     * @throws IllegalStateException on the first mismatch
+     */
+    static void verify(InverseColormap colormap, long seed) {
+        Random random = new Random(seed);
+        for (int[] size : SIZES) {
+            int width = size[0], height = size[1];
+            int[] raster = new int[width * height];
+            for (int i = 0; i < raster.length; i++)
+                raster[i] = 0xFF000000 | random.nextInt(0x1000000);
+            Picture picture = new Picture(raster, width, height);
+
+            for (ErrorDiffusion diffusion : ErrorDiffusion.values()) {
+                int[] expected = reference(diffusion, raster, width, height, colormap);
+                for (int workers : POOL_SIZES) {
+                    ForkJoinPool pool = new ForkJoinPool(workers);
+                    int[] actual = new int[width * height];
+                    try {
+                        diffusion.apply(picture, colormap, pool, actual);
+                    } finally {
+                        pool.shutdown();
+                    }
+                    if (!Arrays.equals(expected, actual))
+                        throw new IllegalStateException(diffusion + " " + width + "x" + height + " with " + workers
+                                + " workers: differs from the serial reference at pixel " + mismatch(expected, actual));
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the first differing pixel.
+     *
+     * @param expected reference raster
+     * @param actual   live raster
+     * @return index of the first differing pixel
+     */
+    private static int mismatch(int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i])
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Run the check on the PICO-8 palette and on a random palette.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        int[] colors = new int[RANDOM_COLORS];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = 0xFF000000 | random.nextInt(0x1000000);
+
+        int[] pico = new int[PICO_8.length];
+        for (int i = 0; i < pico.length; i++)
+            pico[i] = 0xFF000000 | PICO_8[i];
+
+        verify(new InverseColormap(pico), 1);
+        System.out.println("PICO-8: OK");
+        verify(new InverseColormap(colors), 2);
+        System.out.println("random: OK");
+    }
+}
@@ -0,0 +1,98 @@
+package utils;
+
+import models.Picture;
+import models.palette.KMeansPalette;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saturation, contrast and palette mapping chained through BufferedImage as the filters are used one by one, against
+ * the same chain fused into a single FilterPipeline pass. Run through main() to also compare the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class FilterPipelineBenchmark {
+    @Param({"1920x1080", "3840x2160"})
+    public String size;
+
+    private Picture picture;
+    private KMeansPalette palette;
+    private FilterPipeline pipeline;
+
+    /**
+     * Build the input picture, the palette and the fused pipeline.
+     */
+    @Setup
+    public void setup() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]), height = Integer.parseInt(dimensions[1]);
+
+        Random random = new Random(42);
+        int[] raster = new int[width * height];
+        for (int i = 0; i < raster.length; i++)
+            raster[i] = 0xFF000000 | (random.nextInt(0x1000000) & 0xF0F0F0);
+        picture = new Picture(raster, width, height);
+
+        palette = new KMeansPalette(picture, 16, KMeansPalette.DEFAULT_BATCH_SIZE,
+                KMeansPalette.DEFAULT_BATCH_ITERATIONS);
+        pipeline = new FilterPipeline()
+                .map(PictureFilter::saturate)
+                .map(PictureFilter::contrast)
+                .map(palette::nearestColor);
+    }
+
+    @Benchmark
+    public BufferedImage chained() {
+        Picture copy = new Picture(picture.getImage());
+        PictureFilter.increaseSaturation(copy);
+        copy = new Picture(copy.getImage());
+        PictureFilter.increaseContrast(copy);
+        int[] raster = copy.getRaster();
+        for (int i = 0; i < raster.length; i++)
+            raster[i] = palette.nearestColor(raster[i]);
+        return copy.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage fused() {
+        return pipeline.apply(picture).getImage();
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler.
+     *
+     * @param args JMH command line options
+     * @throws RunnerException            if a benchmark fails to run
+     * @throws CommandLineOptionException if the options cannot be parsed
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(FilterPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,210 @@
+package utils;
+
+import models.Picture;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how far the parallel linear difference filters stray from the sequential ones, in CIE76 delta E, and
+ * checks the bounds that follow from their reconciliation. Every sequential pixel is similar to the input pixel,
+ * within SIMILAR. A parallel pixel is similar to its band color, which is similar to the input pixel, so it is within
+ * 2 * SIMILAR of the input and within 3 * SIMILAR of the sequential pixel. On average, the two filters must give
+ * similar colors. The parallel output must also not depend on the number of workers.
+ */
+final class LinearDifferenceCheck {
+    // Largest delta E still perceived as similar, as in ColorMath.valueToScale().
+    private static final double SIMILAR = 11;
+    private static final double MEAN_BOUND = SIMILAR;
+    private static final int[] POOL_SIZES = {1, 2, 3, 8};
+
+    private static final String[] NAMES = {"linearDifferenceFilter", "linearDifferenceFilter2",
+            "linearDifferenceFilter3"};
+    private static final Filter[] FILTERS = {
+            (picture, pool) -> pool == null ? PictureFilter.linearDifferenceFilter(picture)
+                    : PictureFilter.linearDifferenceFilter(picture, pool),
+            (picture, pool) -> pool == null ? PictureFilter.linearDifferenceFilter2(picture)
+                    : PictureFilter.linearDifferenceFilter2(picture, pool),
+            (picture, pool) -> pool == null ? PictureFilter.linearDifferenceFilter3(picture)
+                    : PictureFilter.linearDifferenceFilter3(picture, pool)};
+
+    private LinearDifferenceCheck() {
+    }
+
+    /**
+     * Linear difference filter, sequential or parallel.
+     */
+    @FunctionalInterface
+    private interface Filter {
+        /**
+         * Filter a picture.
+         *
+         * @param picture Picture to be transformed
+         * @param pool    pool to run the bands on, null for the sequential filter
+         * @return transformed picture
+         */
+        BufferedImage apply(Picture picture, ForkJoinPool pool);
+    }
+
+    /**
+     * Measure every filter on a picture and check the bounds.
+     *
+     * @param name    name of the picture, for the report
+     * @param picture picture to filter
+     * @throws IllegalStateException on the first bound exceeded
+     */
+    static void verify(String name, Picture picture) {
+        int width = picture.getWidth(), height = picture.getHeight();
+        for (int f = 0; f < FILTERS.length; f++) {
+            BufferedImage sequential = FILTERS[f].apply(picture, null);
+            BufferedImage parallel = null;
+            for (int workers : POOL_SIZES) {
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                try {
+                    BufferedImage image = FILTERS[f].apply(picture, pool);
+                    if (parallel != null && !sameRGB(parallel, image))
+                        throw new IllegalStateException(NAMES[f] + " on " + name + ": output depends on the number of"
+                                + " workers, " + workers + " differs from " + POOL_SIZES[0]);
+                    parallel = image;
+                } finally {
+                    pool.shutdown();
+                }
+            }
+
+            double sum = 0, max = 0, maxFromInput = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int rgb = parallel.getRGB(x, y);
+                    double difference = ColorMath.cie76(sequential.getRGB(x, y), rgb);
+                    sum += difference;
+                    max = Math.max(max, difference);
+                    maxFromInput = Math.max(maxFromInput, ColorMath.cie76(picture.getARGB(y, x), rgb));
+                }
+            }
+            double mean = sum / ((double) width * height);
+            System.out.println(String.format(Locale.ROOT, "%s on %s %dx%d: sequential vs parallel mean %.2f max %.2f,"
+                    + " parallel vs input max %.2f", NAMES[f], name, width, height, mean, max, maxFromInput));
+
+            bound(NAMES[f] + " on " + name + " parallel vs input max", maxFromInput, 2 * SIMILAR);
+            bound(NAMES[f] + " on " + name + " sequential vs parallel max", max, 3 * SIMILAR);
+            bound(NAMES[f] + " on " + name + " sequential vs parallel mean", mean, MEAN_BOUND);
+        }
+    }
+
+    /**
+     * Require a measurement to be below its bound.
+     *
+     * @param measurement name of the measurement
+     * @param value       measured delta E
+     * @param bound       exclusive bound
+     */
+    private static void bound(String measurement, double value, double bound) {
+        if (!(value < bound))
+            throw new IllegalStateException(measurement + ": " + value + " is not below " + bound);
+    }
+
+    /**
+     * Compare the RGB values of two images of the same size.
+     *
+     * @param first  first image
+     * @param second second image
+     * @return true if every pixel is the same
+     */
+    private static boolean sameRGB(BufferedImage first, BufferedImage second) {
+        for (int y = 0; y < first.getHeight(); y++) {
+            for (int x = 0; x < first.getWidth(); x++) {
+                if (first.getRGB(x, y) != second.getRGB(x, y))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Horizontal and vertical ramps with tiles of varying blue, as in PictureFilterBenchmark.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return synthetic picture
+     */
+    private static Picture gradient(int width, int height) {
+        int[] raster = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int tile = ((i / 32) * 7 + (j / 32) * 13) & 0xFF;
+                raster[i * width + j] = 0xFF000000 | (255 * j / width) << 16 | (255 * i / height) << 8 | tile;
+            }
+        }
+        return new Picture(raster, width, height);
+    }
+
+    /**
+     * Soft blobs of random colors blending into each other, smooth like a photo.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return synthetic picture
+     */
+    private static Picture blobs(int width, int height) {
+        Random random = new Random(7);
+        int[][] blobs = new int[40][];
+        for (int k = 0; k < blobs.length; k++)
+            blobs[k] = new int[]{random.nextInt(width), random.nextInt(height), random.nextInt(0x1000000)};
+
+        int[] raster = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                double red = 0, green = 0, blue = 0, total = 0;
+                for (int[] blob : blobs) {
+                    double weight = 1 / (1 + Math.pow(Math.hypot(blob[0] - j, blob[1] - i) / 40, 3));
+                    total += weight;
+                    red += weight * (blob[2] >> 16 & 0xFF);
+                    green += weight * (blob[2] >> 8 & 0xFF);
+                    blue += weight * (blob[2] & 0xFF);
+                }
+                raster[i * width + j] = 0xFF000000 | (int) (red / total) << 16 | (int) (green / total) << 8
+                        | (int) (blue / total);
+            }
+        }
+        return new Picture(raster, width, height);
+    }
+
+    /**
+     * Uniform random noise.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return synthetic picture
+     */
+    private static Picture noise(int width, int height) {
+        Random random = new Random(42);
+        int[] raster = new int[width * height];
+        for (int i = 0; i < raster.length; i++)
+            raster[i] = 0xFF000000 | random.nextInt(0x1000000);
+        return new Picture(raster, width, height);
+    }
+
+    /**
+     * Run the check on synthetic pictures, whose heights are not multiples of the band height, and on any photos
+     * given.
+     *
+     * @param args paths of photos to check too
+     * @throws IOException if a photo cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        verify("gradient", gradient(640, 481));
+        verify("blobs", blobs(640, 480));
+        verify("noise", noise(333, 201));
+        for (String path : args) {
+            BufferedImage image = ImageIO.read(new File(path));
+            if (image == null)
+                throw new IOException("Cannot read " + path);
+            verify(path, new Picture(image));
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package utils;
+
+import models.Picture;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every PictureFilter entry point from thumbnail to 50 megapixel inputs. Besides operations per second,
+ * each benchmark reports a "megapixels" counter in megapixels per second. Run through main() to also get the
+ * allocation rate from the GC profiler; any JMH command line option can be passed, eg. "-p size=3840x2160".
+ * <p>
+ * The "photo" source scales the image named by the pixelate.bench.image system property, by default
+ * unprocessed_pics/lena.jpg, to the benchmarked size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class PictureFilterBenchmark {
+    private static final String IMAGE_PROPERTY = "pixelate.bench.image";
+    private static final String DEFAULT_IMAGE = "unprocessed_pics/lena.jpg";
+
+    @Param({"256x256", "1920x1080", "3840x2160", "8660x5774"})
+    public String size;
+
+    @Param({"gradient", "noise", "photo"})
+    public String source;
+
+    private Picture picture;
+    private double megapixels;
+    private final OrderedDither bayer = OrderedDither.bayer(OrderedDither.DEFAULT_BAYER_SIZE);
+    private final OrderedDither blueNoise = OrderedDither.blueNoise(OrderedDither.DEFAULT_BLUE_NOISE_SIZE);
+
+    /**
+     * Megapixels processed, reported by JMH as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megapixels;
+    }
+
+    /**
+     * Copy of the picture for the filters that transform it in place. The copy is allocated once and restored before
+     * every iteration, so neither the allocation rate nor the timings include copying. Within an iteration the
+     * filters run on their own output, which costs about the same, as a color table lookup does not branch on the
+     * color.
+     */
+    @State(Scope.Thread)
+    public static class Scratch {
+        private Picture picture;
+
+        /**
+         * Allocate the copy.
+         *
+         * @param benchmark benchmark state holding the original picture
+         */
+        @Setup(Level.Trial)
+        public void allocate(PictureFilterBenchmark benchmark) {
+            Picture original = benchmark.picture;
+            picture = new Picture(new int[original.getRaster().length], original.getWidth(), original.getHeight(),
+                    original.getStride());
+        }
+
+        /**
+         * Restore the copy from the original picture.
+         *
+         * @param benchmark benchmark state holding the original picture
+         */
+        @Setup(Level.Iteration)
+        public void restore(PictureFilterBenchmark benchmark) {
+            int[] raster = benchmark.picture.getRaster();
+            System.arraycopy(raster, 0, picture.getRaster(), 0, raster.length);
+        }
+    }
+
+    /**
+     * Build the input picture.
+     *
+     * @throws IOException if the photo cannot be read
+     */
+    @Setup
+    public void setup() throws IOException {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]), height = Integer.parseInt(dimensions[1]);
+        megapixels = width * (double) height / 1e6;
+
+        switch (source) {
+            case "gradient":
+                picture = gradient(width, height);
+                break;
+            case "noise":
+                picture = noise(width, height);
+                break;
+            case "photo":
+                picture = photo(width, height);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown source " + source);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage gridWeightFilter(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.gridWeightFilter(picture, 0, 0);
+    }
+
+    @Benchmark
+    public BufferedImage gridSpaceFilter(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.gridSpaceFilter(picture);
+    }
+
+    @Benchmark
+    public BufferedImage gridSpaceFilter2(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.gridSpaceFilter2(picture);
+    }
+
+    @Benchmark
+    public BufferedImage gridDifferenceFilter(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.gridDifferenceFilter(picture);
+    }
+
+    @Benchmark
+    public BufferedImage linearDifferenceFilter(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.linearDifferenceFilter(picture);
+    }
+
+    @Benchmark
+    public BufferedImage linearDifferenceFilter2(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.linearDifferenceFilter2(picture);
+    }
+
+    @Benchmark
+    public BufferedImage linearDifferenceFilter3(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.linearDifferenceFilter3(picture);
+    }
+
+    @Benchmark
+    public BufferedImage linearDifferenceFilter3Parallel(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.linearDifferenceFilter3(picture, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public BufferedImage linearDifferenceFilter4(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.linearDifferenceFilter4(picture);
+    }
+
+    @Benchmark
+    public Picture downsample(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        picture.invalidatePyramid();
+        return picture.downsample();
+    }
+
+    @Benchmark
+    public BufferedImage colorQuantization(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.colorQuantization(picture, 16);
+    }
+
+    @Benchmark
+    public BufferedImage colorQuantizationBayer(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.colorQuantization(picture, 16, bayer);
+    }
+
+    @Benchmark
+    public BufferedImage colorQuantizationBlueNoise(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.colorQuantization(picture, 16, blueNoise);
+    }
+
+    @Benchmark
+    public BufferedImage colorQuantizationFloydSteinberg(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.colorQuantization(picture, 16, ErrorDiffusion.FLOYD_STEINBERG);
+    }
+
+    @Benchmark
+    public BufferedImage colorQuantizationAtkinson(Throughput throughput) {
+        throughput.megapixels += megapixels;
+        return PictureFilter.colorQuantization(picture, 16, ErrorDiffusion.ATKINSON);
+    }
+
+    @Benchmark
+    public Picture increaseSaturation(Scratch scratch, Throughput throughput) {
+        throughput.megapixels += megapixels;
+        PictureFilter.increaseSaturation(scratch.picture);
+        return scratch.picture;
+    }
+
+    @Benchmark
+    public Picture increaseContrast(Scratch scratch, Throughput throughput) {
+        throughput.megapixels += megapixels;
+        PictureFilter.increaseContrast(scratch.picture);
+        return scratch.picture;
+    }
+
+    /**
+     * Smooth diagonal gradient broken into flat tiles, close to the flat-shaded art the filters are made for.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return synthetic picture
+     */
+    private static Picture gradient(int width, int height) {
+        int[] raster = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int tile = ((i / 32) * 7 + (j / 32) * 13) & 0xFF;
+                int r = 255 * j / width, g = 255 * i / height, b = tile;
+                raster[i * width + j] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return new Picture(raster, width, height);
+    }
+
+    /**
+     * Uniform random noise, the worst case for palettes and caches.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return synthetic picture
+     */
+    private static Picture noise(int width, int height) {
+        Random random = new Random(42);
+        int[] raster = new int[width * height];
+        for (int i = 0; i < raster.length; i++)
+            raster[i] = 0xFF000000 | random.nextInt(0x1000000);
+        return new Picture(raster, width, height);
+    }
+
+    /**
+     * Scale a real photo to the benchmarked size.
+     *
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @return scaled photo
+     * @throws IOException if the photo cannot be read
+     */
+    private static Picture photo(int width, int height) throws IOException {
+        File file = new File(System.getProperty(IMAGE_PROPERTY, DEFAULT_IMAGE));
+        BufferedImage image = file.isFile() ? ImageIO.read(file) : null;
+        if (image == null)
+            throw new IOException("Cannot read " + file + ", set -D" + IMAGE_PROPERTY + " to a photo");
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return new Picture(scaled);
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler.
+     *
+     * @param args JMH command line options
+     * @throws RunnerException            if a benchmark fails to run
+     * @throws CommandLineOptionException if the options cannot be parsed
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PictureFilterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
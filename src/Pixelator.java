@@ -1,4 +1,5 @@
 import models.Picture;
+import utils.BatchProcessor;
 import utils.PictureDraw;
 import utils.PictureFilter;
 
@@ -77,6 +78,12 @@ public class Pixelator {
     }
 
     public static void main(String[] args) throws IOException {
+        // With arguments, run headless over a batch of files, see BatchProcessor.main() for usage.
+        if (args.length > 0) {
+            BatchProcessor.main(args);
+            return;
+        }
+
         filterAction();
         //edgeDetection();
     }
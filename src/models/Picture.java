@@ -1,23 +1,46 @@
 package models;
 
-import org.imgscalr.Scalr;
+import utils.ParallelRows;
 
 import javax.imageio.ImageIO;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Picture class. Holds the matrix of all the pixels and enables translation between pixel matrix and
- * BufferedImage.
+ * Picture class. Holds the packed ARGB raster of all the pixels and enables translation between the raster and
+ * BufferedImage. The raster is stored row-major in a flat int array, where the pixel at (row, col) lives at index
+ * row * stride + col.
+ * <p>
+ * Smaller versions of the picture are kept in a pyramid of levels, each one half the size of the one before, built
+ * on first use by averaging 2x2 blocks of pixels.
  */
 public class Picture {
-    private Pixel pixels[][];
+    // Long edge of the level returned by downsample(), at least.
+    private static final int DOWNSAMPLE_SIZE = 50;
+
+    private int raster[];
+    private int width, height, stride;
     private String imgSrc;
 
+    // Levels of the pyramid built so far, starting with this picture. Guarded by itself.
+    private final List<Picture> pyramid = new ArrayList<>();
+
     /**
      * Constructor. Accept image path as argument.
      *
@@ -29,12 +52,40 @@ public class Picture {
     }
 
     /**
-     * Constructor. Accept Pixel[][] matrix as argument.
+     * Constructor. Accept Pixel[][] matrix as argument. The pixels are packed into the raster, so later changes to
+     * the Pixel objects are not reflected in this picture.
      *
      * @param pixels pixel matrix to be parsed
      */
     public Picture(Pixel[][] pixels) {
-        this.pixels = pixels;
+        setRaster(new int[pixels.length * pixels[0].length], pixels[0].length, pixels.length, pixels[0].length);
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                raster[i * stride + j] = pixels[i][j].getARGB();
+    }
+
+    /**
+     * Constructor. Accept a packed ARGB raster as argument. The raster is used as is, not copied.
+     *
+     * @param raster packed ARGB raster in row-major order
+     * @param width  width of the picture
+     * @param height height of the picture
+     */
+    public Picture(int[] raster, int width, int height) {
+        this(raster, width, height, width);
+    }
+
+    /**
+     * Constructor. Accept a packed ARGB raster with an explicit row stride as argument. The raster is used as is,
+     * not copied.
+     *
+     * @param raster packed ARGB raster in row-major order
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @param stride distance between the start of two consecutive rows in the raster
+     */
+    public Picture(int[] raster, int width, int height, int stride) {
+        setRaster(raster, width, height, stride);
     }
 
     /**
@@ -43,116 +94,308 @@ public class Picture {
      * @param image BufferedImage to be parsed.
      */
     public Picture(BufferedImage image) {
-        pixels = convertToPixelMatrix(image);
+        setRaster(convertToPixelMatrix(image), image.getWidth(), image.getHeight(), image.getWidth());
     }
 
     /**
-     * Downsample an image. Uses the imgscalr lib from:
-     * https://github.com/rkalla/imgscalr
+     * Downsample an image to the smallest level of the pyramid with a long edge of at least 50 pixels.
      *
-     * @return downsampled image
+     * @return downsampled image, shared, not to be changed
      */
-    public Pixel[][] downsample() {
-        BufferedImage image = getImage();
-        int width = image.getWidth();
-        int height = image.getHeight();
-        double ratio;
+    public Picture downsample() {
+        return getLevelForSize(DOWNSAMPLE_SIZE);
+    }
 
-        if (width >= height) {
-            ratio = 50.0 / width;
-        } else {
-            ratio = 50.0 / height;
+    /**
+     * Get the number of levels of the pyramid, from this picture down to a single pixel.
+     *
+     * @return number of levels
+     */
+    public int getLevelCount() {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(getWidth(), getHeight())));
+    }
+
+    /**
+     * Get a level of the pyramid, building it and the levels before it if needed. Level 0 is this picture, and
+     * every level is half the width and height of the one before, rounded down but at least 1, every pixel being
+     * the average of a 2x2 block (3 wide or high along odd edges). Levels are built from the pixels as they are when
+     * first requested, so invalidatePyramid() must be called after changing the picture.
+     *
+     * @param level level, from 0 to getLevelCount() - 1
+     * @return picture of the level, shared, not to be changed
+     */
+    public Picture getLevel(int level) {
+        if (level < 0 || level >= getLevelCount())
+            throw new IllegalArgumentException("Level must be from 0 to " + (getLevelCount() - 1) + ", got " + level);
+        if (level == 0)
+            return this;
+
+        synchronized (pyramid) {
+            if (pyramid.isEmpty())
+                pyramid.add(this);
+            while (pyramid.size() <= level)
+                pyramid.add(halve(pyramid.get(pyramid.size() - 1)));
+            return pyramid.get(level);
         }
+    }
 
-        BufferedImage scaledImage = Scalr.resize(image, (int) (width * ratio), (int) (height * ratio));
-        return convertToPixelMatrix(scaledImage);
+    /**
+     * Get the smallest level of the pyramid whose long edge is at least a given size, eg. to extract a palette or
+     * draw a preview from as few pixels as that size allows.
+     *
+     * @param longEdge minimum long edge, in pixels
+     * @return picture of the level, this picture if it is not larger than the size
+     */
+    public Picture getLevelForSize(int longEdge) {
+        int edge = Math.max(getWidth(), getHeight());
+        int level = 0;
+        while (level + 1 < getLevelCount() && edge >> (level + 1) >= longEdge)
+            level++;
+        return getLevel(level);
+    }
+
+    /**
+     * Drop the levels of the pyramid built so far, so that they are built again from the current pixels.
+     */
+    public void invalidatePyramid() {
+        synchronized (pyramid) {
+            pyramid.clear();
+        }
     }
 
     // HELPER METHODS
 
     /**
-     * Parse the imgSrc into a Pixel matrix.
+     * Parse the imgSrc into the raster.
      *
      * @param imgSrc image path
      */
     private void parseImg(String imgSrc) {
         try {
             BufferedImage image = ImageIO.read(new File(imgSrc));
-            pixels = convertToPixelMatrix(image);
+            setRaster(convertToPixelMatrix(image), image.getWidth(), image.getHeight(), image.getWidth());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Algorithm to convert image to RGB matrix.
-     * Source: http://stackoverflow.com/questions/6524196/java-get-pixel-array-from-image
+     * Halve a picture by averaging blocks of pixels, in parallel bands of rows. Along an odd edge, the last block is
+     * 3 pixels wide or high. Every channel, alpha included, is averaged and rounded on its own.
      *
-     * @return Pixel matrix with RGB value
+     * @param source picture to halve
+     * @return halved picture, with stride equal to the width
      */
-    private Pixel[][] convertToPixelMatrix(BufferedImage image) {
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-        DataBuffer buffer = image.getRaster().getDataBuffer();
+    private static Picture halve(Picture source) {
+        int sourceWidth = source.getWidth(), sourceHeight = source.getHeight(), sourceStride = source.getStride();
+        int[] sourceRaster = source.getRaster();
+        int width = Math.max(1, sourceWidth / 2), height = Math.max(1, sourceHeight / 2);
+        int[] result = new int[width * height];
+
+        // First source column of every block, and the end of the last one
+        int[] columns = new int[width + 1];
+        for (int j = 0; j <= width; j++)
+            columns[j] = (int) ((long) j * sourceWidth / width);
+
+        ParallelRows.forEachBand(height, (startRow, endRow) -> {
+            for (int i = startRow; i < endRow; i++) {
+                int top = (int) ((long) i * sourceHeight / height);
+                int bottom = (int) ((long) (i + 1) * sourceHeight / height);
+                for (int j = 0; j < width; j++) {
+                    int alpha = 0, red = 0, green = 0, blue = 0;
+                    for (int y = top; y < bottom; y++) {
+                        for (int x = columns[j]; x < columns[j + 1]; x++) {
+                            int argb = sourceRaster[y * sourceStride + x];
+                            alpha += argb >>> 24;
+                            red += argb >> 16 & 0xFF;
+                            green += argb >> 8 & 0xFF;
+                            blue += argb & 0xFF;
+                        }
+                    }
+                    int count = (bottom - top) * (columns[j + 1] - columns[j]), half = count / 2;
+                    result[i * width + j] = (alpha + half) / count << 24 | (red + half) / count << 16
+                            | (green + half) / count << 8 | (blue + half) / count;
+                }
+            }
+        });
+        return new Picture(result, width, height);
+    }
 
-        if (buffer.getDataType() == DataBuffer.TYPE_BYTE) {
-            final byte[] data = ((DataBufferByte) buffer).getData();
-            boolean hasAlphaChannel = image.getAlphaRaster() != null;
-            return getPixelMatrix(hasAlphaChannel, data, width, height);
+    /**
+     * Set the raster and its dimensions.
+     *
+     * @param raster packed ARGB raster
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @param stride row stride of the raster
+     */
+    private void setRaster(int[] raster, int width, int height, int stride) {
+        if (stride < width || raster.length < (height - 1) * stride + width)
+            throw new IllegalArgumentException("Raster is too small for a " + width + "x" + height + " picture");
+        this.raster = raster;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    /**
+     * Convert an image to a packed ARGB raster. Packed int, interleaved byte and 16-bit component, gray and indexed
+     * rasters are read straight from their data buffers; anything else, eg. premultiplied alpha, goes through
+     * BufferedImage.getRGB() one row at a time. Gray samples are replicated into the three channels as they are.
+     *
+     * @param image image to convert
+     * @return packed ARGB raster of the image, with stride equal to the width
+     */
+    private static int[] convertToPixelMatrix(BufferedImage image) {
+        int[] result = new int[image.getWidth() * image.getHeight()];
+        ColorModel model = image.getColorModel();
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        if (model.isAlphaPremultiplied() || buffer.getNumBanks() != 1) {
+            readGeneric(image, result);
+        } else if (model instanceof IndexColorModel) {
+            readIndexed(raster, (IndexColorModel) model, result);
+        } else if (model instanceof DirectColorModel && buffer instanceof DataBufferInt
+                && sampleModel instanceof SinglePixelPackedSampleModel) {
+            readPackedInt(raster, (DirectColorModel) model, result);
+        } else if (model instanceof ComponentColorModel && sampleModel instanceof ComponentSampleModel
+                && (buffer instanceof DataBufferByte || buffer instanceof DataBufferUShort)
+                && (model.getColorSpace().isCS_sRGB() || model.getColorSpace().getType() == ColorSpace.TYPE_GRAY)) {
+            readComponents(raster, model, result);
         } else {
-            final int[] data = ((DataBufferInt) buffer).getData();
-            return getPixelMatrix(data, width, height);
+            readGeneric(image, result);
         }
+        return result;
     }
 
     /**
-     * Helper method to convert image to RGB matrix given data is of type byte.
+     * Read a raster of ints holding whole pixels, eg. TYPE_INT_RGB, TYPE_INT_ARGB or TYPE_INT_BGR.
      *
-     * @param hasAlpha  true if image has alpha channel, false otherwise
-     * @param data      the byte array of the image
-     * @param imgWidth  the width of the image
-     * @param imgHeight the height of the image
-     * @return the Pixel matrix of the image
+     * @param raster raster of the image
+     * @param model  color model giving the bit masks of the channels
+     * @param result packed ARGB raster to write to
      */
-    private Pixel[][] getPixelMatrix(boolean hasAlpha, byte[] data, int imgWidth, int imgHeight) {
-        Pixel result[][] = new Pixel[imgHeight][imgWidth];
-        final int pixelLength = hasAlpha ? 4 : 3;
+    private static void readPackedInt(WritableRaster raster, DirectColorModel model, int[] result) {
+        int width = raster.getWidth(), height = raster.getHeight();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = buffer.getData();
+        int scanline = sampleModel.getScanlineStride();
+        int start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(),
+                -raster.getSampleModelTranslateY());
 
-        for (int pixelNum = 0, row = 0, col = 0; pixelNum < data.length; pixelNum += pixelLength) {
-            if (hasAlpha) {
-                result[row][col] = new Pixel(data[pixelNum], data[pixelNum + 3], data[pixelNum + 2], data[pixelNum + 1]);
+        int redMask = model.getRedMask(), greenMask = model.getGreenMask(), blueMask = model.getBlueMask();
+        int alphaMask = model.getAlphaMask();
+        boolean standard = redMask == 0xFF0000 && greenMask == 0xFF00 && blueMask == 0xFF
+                && (alphaMask == 0 || alphaMask == Pixel.MAX_ALPHA);
+        int opaque = alphaMask == 0 ? Pixel.MAX_ALPHA : 0;
+
+        for (int i = 0; i < height; i++) {
+            int row = start + i * scanline;
+            if (standard) {
+                for (int j = 0; j < width; j++)
+                    result[i * width + j] = data[row + j] | opaque;
             } else {
-                result[row][col] = new Pixel(Pixel.MAX_ALPHA, data[pixelNum + 2], data[pixelNum + 1], data[pixelNum]);
-            }
-            col++;
-            if (col == imgWidth) {
-                col = 0;
-                row++;
+                for (int j = 0; j < width; j++) {
+                    int pixel = data[row + j];
+                    result[i * width + j] = (alphaMask == 0 ? Pixel.MAX_ALPHA : channel(pixel, alphaMask) << 24)
+                            | (channel(pixel, redMask) << 16) | (channel(pixel, greenMask) << 8)
+                            | channel(pixel, blueMask);
+                }
             }
         }
-        return result;
     }
 
     /**
-     * Helper method to convert image to RGB matrix given data is of type int.
+     * Extract an 8-bit channel from a packed pixel. Wider channels keep their top 8 bits, narrower ones are scaled
+     * up.
      *
-     * @param data      the int array of the image
-     * @param imgWidth  the width of the image
-     * @param imgHeight the height of the image
-     * @return the Pixel matrix of the image
+     * @param pixel packed pixel
+     * @param mask  bit mask of the channel
+     * @return channel value from 0 to 255
      */
-    private Pixel[][] getPixelMatrix(int[] data, int imgWidth, int imgHeight) {
-        Pixel result[][] = new Pixel[imgHeight][imgWidth];
+    private static int channel(int pixel, int mask) {
+        int bits = Integer.bitCount(mask);
+        int value = (pixel & mask) >>> Integer.numberOfTrailingZeros(mask);
+        return bits >= 8 ? value >>> (bits - 8) : value * 255 / ((1 << bits) - 1);
+    }
+
+    /**
+     * Read a raster of 8 or 16-bit samples, one per channel, in any band order, eg. TYPE_3BYTE_BGR,
+     * TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY, TYPE_USHORT_GRAY or the 16-bit RGB(A) rasters of PNGs. 16-bit samples keep
+     * their top 8 bits.
+     *
+     * @param raster raster of the image
+     * @param model  color model telling the color and alpha bands apart
+     * @param result packed ARGB raster to write to
+     */
+    private static void readComponents(WritableRaster raster, ColorModel model, int[] result) {
+        int width = raster.getWidth(), height = raster.getHeight();
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        int scanline = sampleModel.getScanlineStride(), pixelStride = sampleModel.getPixelStride();
+        int start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(),
+                -raster.getSampleModelTranslateY(), 0) - sampleModel.getBandOffsets()[0];
+        int[] offsets = sampleModel.getBandOffsets();
+
+        // Gray rasters read the same band three times.
+        boolean gray = model.getNumColorComponents() == 1;
+        int red = offsets[0], green = offsets[gray ? 0 : 1], blue = offsets[gray ? 0 : 2];
+        int alpha = model.hasAlpha() ? offsets[model.getNumColorComponents()] : -1;
+
+        byte[] bytes = buffer instanceof DataBufferByte ? ((DataBufferByte) buffer).getData() : null;
+        short[] shorts = buffer instanceof DataBufferUShort ? ((DataBufferUShort) buffer).getData() : null;
 
-        for (int pixelNum = 0, row = 0, col = 0; pixelNum < data.length; pixelNum++) {
-            result[row][col] = new Pixel(data[pixelNum]);
-            col++;
-            if (col == imgWidth) {
-                col = 0;
-                row++;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0, index = start + i * scanline; j < width; j++, index += pixelStride) {
+                int argb;
+                if (bytes != null) {
+                    argb = (alpha < 0 ? Pixel.MAX_ALPHA : (bytes[index + alpha] & 0xFF) << 24)
+                            | ((bytes[index + red] & 0xFF) << 16) | ((bytes[index + green] & 0xFF) << 8)
+                            | (bytes[index + blue] & 0xFF);
+                } else {
+                    argb = (alpha < 0 ? Pixel.MAX_ALPHA : (shorts[index + alpha] & 0xFF00) << 16)
+                            | ((shorts[index + red] & 0xFF00) << 8) | (shorts[index + green] & 0xFF00)
+                            | ((shorts[index + blue] & 0xFF00) >> 8);
+                }
+                result[i * width + j] = argb;
             }
         }
-        return result;
+    }
+
+    /**
+     * Read a raster of palette indices, eg. TYPE_BYTE_INDEXED or TYPE_BYTE_BINARY, through a lookup table of the
+     * palette.
+     *
+     * @param raster raster of the image
+     * @param model  palette of the image
+     * @param result packed ARGB raster to write to
+     */
+    private static void readIndexed(WritableRaster raster, IndexColorModel model, int[] result) {
+        int width = raster.getWidth(), height = raster.getHeight();
+        int[] palette = new int[model.getMapSize()];
+        model.getRGBs(palette);
+
+        int[] indices = new int[width];
+        for (int i = 0; i < height; i++) {
+            raster.getSamples(0, i, width, 1, 0, indices);
+            for (int j = 0; j < width; j++)
+                result[i * width + j] = indices[j] < palette.length ? palette[indices[j]] : Pixel.MAX_ALPHA;
+        }
+    }
+
+    /**
+     * Read any image through BufferedImage.getRGB(), one row at a time.
+     *
+     * @param image  image to read
+     * @param result packed ARGB raster to write to
+     */
+    private static void readGeneric(BufferedImage image, int[] result) {
+        int width = image.getWidth();
+        for (int i = 0; i < image.getHeight(); i++)
+            image.getRGB(0, i, width, 1, result, i * width, width);
     }
 
     // GETTERS & SETTERS
@@ -167,15 +410,29 @@ public class Picture {
     }
 
     /**
-     * Generate the buffered image of the picture.
+     * Generate the buffered image of the picture. The alpha channel is dropped.
      *
      * @return buffered image of the picture
      */
     public BufferedImage getImage() {
-        BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        for (int i = 0; i < pixels.length; i++)
-            for (int j = 0; j < pixels[0].length; j++)
-                image.setRGB(j, i, pixels[i][j].getRGB());
+        return getImage(BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Generate the buffered image of the picture by copying the raster rows straight into the image's data buffer.
+     *
+     * @param imageType BufferedImage.TYPE_INT_RGB to drop the alpha channel, or BufferedImage.TYPE_INT_ARGB to keep
+     *                  it
+     * @return buffered image of the picture
+     */
+    public BufferedImage getImage(int imageType) {
+        if (imageType != BufferedImage.TYPE_INT_RGB && imageType != BufferedImage.TYPE_INT_ARGB)
+            throw new IllegalArgumentException("Unsupported image type " + imageType);
+
+        BufferedImage image = new BufferedImage(getWidth(), getHeight(), imageType);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < getHeight(); i++)
+            System.arraycopy(raster, i * stride, data, i * width, width);
         return image;
     }
 
@@ -185,7 +442,7 @@ public class Picture {
      * @return width of picture
      */
     public int getWidth() {
-        return pixels == null ? 0 : pixels[0].length;
+        return raster == null ? 0 : width;
     }
 
     /**
@@ -194,15 +451,64 @@ public class Picture {
      * @return height of picture.
      */
     public int getHeight() {
-        return pixels == null ? 0 : pixels.length;
+        return raster == null ? 0 : height;
+    }
+
+    /**
+     * Get the row stride of the raster, ie. the distance between the start of two consecutive rows.
+     *
+     * @return row stride of the raster
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Get the packed ARGB raster backing this picture. Changes to the raster are reflected in the picture, but not in
+     * the levels of its pyramid until invalidatePyramid() is called.
+     *
+     * @return packed ARGB raster
+     */
+    public int[] getRaster() {
+        return raster;
+    }
+
+    /**
+     * Get the ARGB value of the pixel at (row, col).
+     *
+     * @param row row of the pixel
+     * @param col column of the pixel
+     * @return ARGB value of the pixel
+     */
+    public int getARGB(int row, int col) {
+        return raster[row * stride + col];
     }
 
     /**
-     * Get a copy of the Pixel matrix
+     * Set the ARGB value of the pixel at (row, col).
+     *
+     * @param row  row of the pixel
+     * @param col  column of the pixel
+     * @param argb ARGB value of the pixel
+     */
+    public void setARGB(int row, int col, int argb) {
+        raster[row * stride + col] = argb;
+    }
+
+    /**
+     * Get a copy of the Pixel matrix. This is a compatibility view built from the raster, so changes to the
+     * returned Pixel objects are not reflected in this picture.
      *
      * @return copy of Pixel matrix.
      */
     public Pixel[][] getPixels() {
+        if (raster == null)
+            return null;
+
+        Pixel pixels[][] = new Pixel[height][width];
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                pixels[i][j] = new Pixel(raster[i * stride + j]);
         return pixels;
     }
 }
@@ -257,8 +257,7 @@ public class Pixel {
      * @return PerceptionScale of the difference between the two pixels.
      */
     public static PerceptionScale colorDifferenceScale(Pixel p1, Pixel p2) {
-        return ColorMath.colorDifferenceScale(new double[]{p1.getRed(), p1.getGreen(), p1.getBlue()},
-                new double[]{p2.getRed(), p2.getGreen(), p2.getBlue()});
+        return ColorMath.colorDifferenceScale(p1.getRGB(), p2.getRGB());
     }
 
     /**
@@ -269,8 +268,7 @@ public class Pixel {
      * @return value of the difference between the two pixels.
      */
     public static double colorDifferenceVal(Pixel p1, Pixel p2) {
-        return ColorMath.colorDifferenceVal(new double[]{p1.getRed(), p1.getGreen(), p1.getBlue()},
-                new double[]{p2.getRed(), p2.getGreen(), p2.getBlue()});
+        return ColorMath.colorDifferenceVal(p1.getRGB(), p2.getRGB());
     }
 
     /**
@@ -282,8 +280,7 @@ public class Pixel {
      * @return value of the difference between the two pixels.
      */
     public static double colorDifferenceVal(Pixel p1, Pixel p2, ColorMath.Mode mode) {
-        return ColorMath.colorDifferenceVal(new double[]{p1.getRed(), p1.getGreen(), p1.getBlue()},
-                new double[]{p2.getRed(), p2.getGreen(), p2.getBlue()}, mode);
+        return ColorMath.colorDifferenceVal(p1.getRGB(), p2.getRGB(), mode);
     }
 
     /**
@@ -0,0 +1,129 @@
+package models.palette;
+
+import models.Picture;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of the colors of a picture. Every entry is a distinct color together with the number of pixels that
+ * have it, so a picture with large flat areas reduces to a few thousand weighted colors however many pixels it has.
+ * <p>
+ * Colors can be pre-binned to fewer bits per channel. A binned entry holds the mean color of the pixels that fell
+ * into its bin rather than the bin's corner, so binning loses as little color as possible.
+ */
+public class ColorHistogram {
+    private final int[] colors;
+    private final int[] counts;
+
+    /**
+     * Constructor. Counts every distinct color exactly.
+     *
+     * @param picture Picture to count
+     */
+    public ColorHistogram(Picture picture) {
+        this(picture, 8);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param picture        Picture to count
+     * @param bitsPerChannel bits kept per channel, from 1 to 8. 8 counts every distinct color exactly
+     */
+    public ColorHistogram(Picture picture, int bitsPerChannel) {
+        if (bitsPerChannel < 1 || bitsPerChannel > 8)
+            throw new IllegalArgumentException("Bits per channel must be between 1 and 8, got " + bitsPerChannel);
+
+        int width = picture.getWidth(), height = picture.getHeight(), stride = picture.getStride();
+        int[] raster = picture.getRaster();
+
+        if (bitsPerChannel == 8) {
+            // 2^24 bins would be mostly empty, so sort the colors and count runs instead.
+            int[] sorted = new int[width * height];
+            for (int i = 0; i < height; i++)
+                for (int j = 0; j < width; j++)
+                    sorted[i * width + j] = raster[i * stride + j] & 0xFFFFFF;
+            Arrays.sort(sorted);
+
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++)
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    distinct++;
+
+            colors = new int[distinct];
+            counts = new int[distinct];
+            int entry = -1;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    colors[++entry] = sorted[i];
+                counts[entry]++;
+            }
+            return;
+        }
+
+        int shift = 8 - bitsPerChannel, mask = (1 << bitsPerChannel) - 1;
+        int bins = 1 << (3 * bitsPerChannel);
+        int[] binCounts = new int[bins];
+        long[] red = new long[bins], green = new long[bins], blue = new long[bins];
+
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int argb = raster[i * stride + j];
+                int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF;
+                int bin = ((r >> shift) << (2 * bitsPerChannel)) | (((g >> shift) & mask) << bitsPerChannel)
+                        | (b >> shift);
+                binCounts[bin]++;
+                red[bin] += r;
+                green[bin] += g;
+                blue[bin] += b;
+            }
+        }
+
+        int distinct = 0;
+        for (int count : binCounts)
+            if (count > 0)
+                distinct++;
+
+        colors = new int[distinct];
+        counts = new int[distinct];
+        for (int bin = 0, entry = 0; bin < bins; bin++) {
+            int count = binCounts[bin];
+            if (count == 0)
+                continue;
+            int r = (int) ((red[bin] + count / 2) / count);
+            int g = (int) ((green[bin] + count / 2) / count);
+            int b = (int) ((blue[bin] + count / 2) / count);
+            colors[entry] = (r << 16) | (g << 8) | b;
+            counts[entry++] = count;
+        }
+    }
+
+    /**
+     * Get the number of entries in the histogram.
+     *
+     * @return number of distinct (binned) colors
+     */
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Get the color of an entry.
+     *
+     * @param index index of the entry
+     * @return packed RGB value of the entry
+     */
+    public int getRGB(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Get the number of pixels counted in an entry.
+     *
+     * @param index index of the entry
+     * @return number of pixels of the entry
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+}
@@ -0,0 +1,227 @@
+package models.palette;
+
+import models.Pixel;
+import utils.ColorMath;
+import utils.LabTable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Palette that any number of threads can look up and extend at once, eg. one palette shared by the pictures of a
+ * batch so that similar colors come out the same in all of them.
+ * <p>
+ * Colors are indexed in a Lab grid whose cells are immutable arrays, replaced on insertion, so lookups never lock.
+ * Insertions lock the stripes of the cells around the new color only: a color similar to it can only be added to one
+ * of those cells, so findOrAdd() never adds two similar colors, while colors far apart are added in parallel.
+ * <p>
+ * The order in which threads add colors is not defined, so neither are the indices of the colors.
+ */
+public class ConcurrentPalette implements PaletteLookup {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = (1 << 24) / CHUNK_SIZE;
+
+    // Entries of every non-empty cell, {index, argb} pairs in insertion order of the cell.
+    private final ConcurrentHashMap<Long, int[]> cells = new ConcurrentHashMap<>();
+    // Packed ARGB value of every color by index, in chunks allocated on first use.
+    private final AtomicReferenceArray<int[]> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * Constructor.
+     */
+    public ConcurrentPalette() {
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Add a color to the palette, whether or not a similar color exists.
+     *
+     * @param color color to be added
+     */
+    public void add(Pixel color) {
+        add(color.getARGB());
+    }
+
+    /**
+     * Add a packed color to the palette, whether or not a similar color exists.
+     *
+     * @param argb packed ARGB value of the color to be added
+     */
+    public void add(int argb) {
+        long key = key(argb);
+        ReentrantLock lock = locks[stripe(key)];
+        lock.lock();
+        try {
+            append(key, argb);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the nearest similar color, without locking.
+     *
+     * @param color color to be compared with
+     * @return the nearest similar color, null if there is none
+     */
+    public Pixel findSimilar(Pixel color) {
+        int nearest = findSimilar(color.getRGB());
+        return nearest < 0 ? null : new Pixel(getARGB(nearest));
+    }
+
+    /**
+     * Find the nearest similar color to a packed color, without locking. Colors being added by other threads may or
+     * may not be seen. Ties go to the first added color.
+     *
+     * @param rgb packed RGB value of the color to be compared with, the alpha byte is ignored
+     * @return index of the nearest similar color for getARGB(), -1 if there is none
+     */
+    @Override
+    public int findSimilar(int rgb) {
+        int cl = cell(LabTable.lightness(rgb)), ca = cell(LabTable.a(rgb)), cb = cell(LabTable.b(rgb));
+
+        int nearest = -1;
+        double min = Palette.SIMILAR_THRESHOLD;
+        for (int l = cl - 1; l <= cl + 1; l++) {
+            for (int a = ca - 1; a <= ca + 1; a++) {
+                for (int b = cb - 1; b <= cb + 1; b++) {
+                    int[] entries = cells.get(LabGrid.key(l, a, b));
+                    if (entries == null)
+                        continue;
+                    for (int i = 0; i < entries.length; i += 2) {
+                        double diff = ColorMath.cie76(rgb, entries[i + 1]);
+                        if (diff < min || (diff == min && nearest >= 0 && entries[i] < nearest)) {
+                            min = diff;
+                            nearest = entries[i];
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Find the nearest similar color to a packed color, or else add the color, atomically.
+     *
+     * @param argb packed ARGB value of the color
+     * @return index of the nearest similar color, or of the added color, for getARGB()
+     */
+    @Override
+    public int findOrAdd(int argb) {
+        int nearest = findSimilar(argb);
+        if (nearest >= 0)
+            return nearest;
+
+        // Lock the stripes of the 27 cells a similar color could be added to, in increasing order
+        int cl = cell(LabTable.lightness(argb)), ca = cell(LabTable.a(argb)), cb = cell(LabTable.b(argb));
+        boolean[] stripes = new boolean[STRIPES];
+        for (int l = cl - 1; l <= cl + 1; l++) {
+            for (int a = ca - 1; a <= ca + 1; a++) {
+                for (int b = cb - 1; b <= cb + 1; b++)
+                    stripes[stripe(LabGrid.key(l, a, b))] = true;
+            }
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            if (stripes[i])
+                locks[i].lock();
+        }
+        try {
+            nearest = findSimilar(argb);
+            return nearest >= 0 ? nearest : append(LabGrid.key(cl, ca, cb), argb);
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                if (stripes[i])
+                    locks[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Get a color of the palette.
+     *
+     * @param index index of the color, as returned by findSimilar() or findOrAdd()
+     * @return packed ARGB value of the color
+     */
+    @Override
+    public int getARGB(int index) {
+        return chunks.get(index >> CHUNK_BITS)[index & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Get the number of colors added so far, including any still being added by other threads.
+     *
+     * @return size of the palette
+     */
+    @Override
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Append a color to the palette. The stripe of its cell must be locked.
+     *
+     * @param key  key of the cell of the color
+     * @param argb packed ARGB value of the color
+     * @return index of the color
+     */
+    private int append(long key, int argb) {
+        int index = size.getAndIncrement();
+        if (index >> CHUNK_BITS >= MAX_CHUNKS)
+            throw new IllegalStateException("Palette is full");
+        int[] chunk = chunks.get(index >> CHUNK_BITS);
+        if (chunk == null) {
+            chunks.compareAndSet(index >> CHUNK_BITS, null, new int[CHUNK_SIZE]);
+            chunk = chunks.get(index >> CHUNK_BITS);
+        }
+        chunk[index & (CHUNK_SIZE - 1)] = argb;
+
+        // Publish the color by replacing the entries of its cell
+        int[] entries = cells.get(key);
+        int[] grown = new int[entries == null ? 2 : entries.length + 2];
+        if (entries != null)
+            System.arraycopy(entries, 0, grown, 0, entries.length);
+        grown[grown.length - 2] = index;
+        grown[grown.length - 1] = argb;
+        cells.put(key, grown);
+        return index;
+    }
+
+    /**
+     * Get the key of the cell of a color.
+     *
+     * @param rgb packed RGB value
+     * @return key of the cell
+     */
+    private static long key(int rgb) {
+        return LabGrid.key(cell(LabTable.lightness(rgb)), cell(LabTable.a(rgb)), cell(LabTable.b(rgb)));
+    }
+
+    /**
+     * Get the cell coordinate of a Lab component. Cells are as wide as the similarity threshold.
+     *
+     * @param component L, a or b value
+     * @return cell coordinate along that axis
+     */
+    private static int cell(double component) {
+        return (int) Math.floor(component / Palette.SIMILAR_THRESHOLD);
+    }
+
+    /**
+     * Get the lock stripe of a cell.
+     *
+     * @param key key of the cell
+     * @return index of the stripe
+     */
+    private static int stripe(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - STRIPE_BITS));
+    }
+}
@@ -0,0 +1,170 @@
+package models.palette;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Palette of predefined colors, such as the NES or PICO-8 palettes, that pictures are mapped onto through an inverse
+ * colormap. Palettes are read from GIMP (.gpl), JASC-PAL (.pal), plain hex (.hex) or Paint.NET (.txt) files.
+ * <p>
+ * The palette is immutable, so it can be shared by any number of threads.
+ */
+public class FixedPalette {
+    private final String name;
+    private final InverseColormap colormap;
+
+    /**
+     * Constructor.
+     *
+     * @param name   name of the palette
+     * @param colors packed RGB values of the palette colors, the alpha byte is ignored
+     */
+    public FixedPalette(String name, int[] colors) {
+        this(name, colors, InverseColormap.DEFAULT_BITS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name   name of the palette
+     * @param colors packed RGB values of the palette colors, the alpha byte is ignored
+     * @param bits   number of high bits of every channel indexing the inverse colormap, from 1 to 8
+     */
+    public FixedPalette(String name, int[] colors, int bits) {
+        int[] argb = new int[colors.length];
+        for (int i = 0; i < colors.length; i++)
+            argb[i] = 0xFF000000 | colors[i];
+        this.name = name;
+        this.colormap = new InverseColormap(argb, bits);
+    }
+
+    /**
+     * Get the name of the palette.
+     *
+     * @return name of the palette
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of colors in the palette.
+     *
+     * @return size of the palette
+     */
+    public int size() {
+        return colormap.size();
+    }
+
+    /**
+     * Get a palette color.
+     *
+     * @param index index of the color
+     * @return packed RGB value of the color
+     */
+    public int getRGB(int index) {
+        return colormap.getColor(index) & 0xFFFFFF;
+    }
+
+    /**
+     * Get the inverse colormap of the palette.
+     *
+     * @return inverse colormap, giving the same colors as nearestColor()
+     */
+    public InverseColormap getColormap() {
+        return colormap;
+    }
+
+    /**
+     * Obtain the nearest color in this palette.
+     *
+     * @param rgb packed RGB value of the color benchmark, the alpha byte is ignored
+     * @return packed ARGB value of the nearest color, opaque
+     */
+    public int nearestColor(int rgb) {
+        return colormap.nearestColor(rgb);
+    }
+
+    /**
+     * Read a palette file. The format is chosen from the content: a "GIMP Palette" header for GIMP files, a
+     * "JASC-PAL" header for JASC files, and otherwise one RRGGBB or AARRGGBB hex color per line, with an optional
+     * '#' and ';' comment lines.
+     *
+     * @param file palette file
+     * @return the palette, named after the file unless the file names it
+     * @throws IOException if the file cannot be read or holds no colors
+     */
+    public static FixedPalette read(File file) throws IOException {
+        String name = file.getName().replaceFirst("\\.[^.]*$", "");
+        List<Integer> colors = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            String format = (line == null) ? "" : line.trim();
+            boolean decimal = format.equals("GIMP Palette") || format.equals("JASC-PAL");
+            int lineNumber = 1;
+            if (format.equals("JASC-PAL")) {
+                // Version and color count lines, then one "R G B" line per color
+                reader.readLine();
+                reader.readLine();
+                lineNumber += 2;
+                line = reader.readLine();
+                lineNumber++;
+            } else if (format.equals("GIMP Palette")) {
+                line = reader.readLine();
+                lineNumber++;
+            }
+
+            for (; line != null; line = reader.readLine(), lineNumber++) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith(";") || (decimal && line.startsWith("#")))
+                    continue;
+                try {
+                    if (decimal) {
+                        if (line.startsWith("Name:")) {
+                            name = line.substring("Name:".length()).trim();
+                            continue;
+                        }
+                        if (line.startsWith("Columns:"))
+                            continue;
+                        String[] tokens = line.split("\\s+");
+                        colors.add(channel(tokens[0]) << 16 | channel(tokens[1]) << 8 | channel(tokens[2]));
+                    } else {
+                        String hex = line.startsWith("#") ? line.substring(1) : line;
+                        if (hex.length() != 6 && hex.length() != 8)
+                            throw new NumberFormatException(hex);
+                        colors.add((int) Long.parseLong(hex, 16) & 0xFFFFFF);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(file + ":" + lineNumber + ": cannot parse \"" + line + "\"", e);
+                }
+            }
+        }
+
+        if (colors.isEmpty())
+            throw new IOException(file + ": no colors");
+        int[] rgb = new int[colors.size()];
+        for (int i = 0; i < rgb.length; i++)
+            rgb[i] = colors.get(i);
+        return new FixedPalette(name, rgb);
+    }
+
+    /**
+     * Parse a channel value.
+     *
+     * @param token decimal value
+     * @return channel value from 0 to 255
+     * @throws NumberFormatException if the value is not a number from 0 to 255
+     */
+    private static int channel(String token) {
+        int value = Integer.parseInt(token);
+        if (value < 0 || value > 255)
+            throw new NumberFormatException(token);
+        return value;
+    }
+}
@@ -3,20 +3,23 @@ package models.palette;
 import models.Pixel;
 import utils.ColorMath;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Gradient palette. Creates the palette using color interpolation for each hue.
+ * <p>
+ * Colors are sorted into the ramps of the 12 hues by their hue angle, without any color difference, and every ramp
+ * holds packed colors, so the palette can map colors as fast as Palette.
  */
 public class GradientPalette {
     private static final int STEPS = 16;
 
-    private static Pixel hues[];
+    // Low bits of a color index holding the hue of its ramp, the high bits holding its position in the ramp.
+    private static final int HUE_BITS = 4;
+    private static final int HUE_MASK = (1 << HUE_BITS) - 1;
 
-    private HashMap<Pixel, ColorRamp> palette;
+    private final ColorRamp[] ramps;
     private Pixel tempColor;
 
     public enum Hue {
@@ -24,6 +27,8 @@ public class GradientPalette {
         SPRING_GREEN(0x00ff7f), CYAN(0x00ffff), AZURE(0x007fff), BLUE(0x0000ff), VIOLET(0x7f00ff), MAGENTA(0xff00ff),
         ROSE(0xff007f);
 
+        private static final Hue[] HUES = values();
+
         private final int rgb;
 
         /**
@@ -43,14 +48,32 @@ public class GradientPalette {
         public int getRGB() {
             return rgb;
         }
-    }
 
-    // Static initializer block to initialize hues array.
-    static {
-        Hue allHues[] = Hue.values();
-        hues = new Pixel[allHues.length];
-        for (int i = 0; i < allHues.length; i++) {
-            hues[i] = new Pixel(allHues[i].getRGB());
+        /**
+         * Get the hue of a color: the one nearest to its HSB hue angle, as the hues are 30 degrees apart starting
+         * from red. Grays have no hue angle and get RED, as in Color.RGBtoHSB().
+         *
+         * @param rgb packed RGB value of the color, the alpha byte is ignored
+         * @return nearest hue
+         */
+        public static Hue of(int rgb) {
+            int red = rgb >> 16 & 0xFF, green = rgb >> 8 & 0xFF, blue = rgb & 0xFF;
+            int max = Math.max(red, Math.max(green, blue));
+            int delta = max - Math.min(red, Math.min(green, blue));
+            if (delta == 0)
+                return RED;
+
+            // Hue angle in sixths of a turn, times delta, from -delta to 5 * delta
+            int sixths;
+            if (max == red)
+                sixths = green - blue;
+            else if (max == green)
+                sixths = 2 * delta + blue - red;
+            else
+                sixths = 4 * delta + red - green;
+
+            // Round to twelfths of a turn: floor(2 * sixths / delta + 1 / 2)
+            return HUES[Math.floorMod(Math.floorDiv(4 * sixths + delta, 2 * delta), HUES.length)];
         }
     }
 
@@ -59,27 +82,69 @@ public class GradientPalette {
      */
     public GradientPalette() {
         tempColor = null;
-        initMap();
+        ramps = new ColorRamp[Hue.HUES.length];
+        for (int i = 0; i < ramps.length; i++)
+            ramps[i] = new ColorRamp();
     }
 
     /**
-     * Initialize the map that stores all the colors.
+     * Add a color to the palette.
+     *
+     * @param color color to be added
      */
-    private void initMap() {
-        palette = new HashMap<>();
-        for (Pixel hue : hues) {
-            palette.put(hue, new ColorRamp());
-        }
+    public void add(Pixel color) {
+        add(color.getARGB());
     }
 
     /**
-     * Add a color to the palette.
+     * Add a packed color to the palette.
      *
-     * @param color color to be added
+     * @param argb packed ARGB value of the color to be added
      */
-    public void add(Pixel color) {
-        Pixel nearestHue = nearest(color, hues);
-        palette.get(nearestHue).add(color);
+    public void add(int argb) {
+        ramps[Hue.of(argb).ordinal()].add(argb);
+    }
+
+    /**
+     * Find the nearest similar color in the ramp of the hue of a color. Unlike exists(), the lookup leaves the
+     * palette untouched.
+     *
+     * @param color color to be compared with
+     * @return the nearest similar color, null if there is none
+     */
+    public Pixel findSimilar(Pixel color) {
+        int nearest = findSimilar(color.getRGB());
+        return nearest < 0 ? null : new Pixel(getARGB(nearest));
+    }
+
+    /**
+     * Find the nearest similar color to a packed color in the ramp of its hue, without allocating.
+     *
+     * @param rgb packed RGB value of the color to be compared with, the alpha byte is ignored
+     * @return index of the nearest similar color for getARGB(), -1 if there is none
+     */
+    public int findSimilar(int rgb) {
+        int hue = Hue.of(rgb).ordinal();
+        ColorRamp ramp = ramps[hue];
+        if (ramp.size == 0)
+            return -1;
+        int nearest = Palette.nearestIndex(rgb, ramp.colors, ramp.size);
+        return nearest < 0 ? -1 : nearest << HUE_BITS | hue;
+    }
+
+    /**
+     * Find the nearest similar color to a packed color, or else add the color.
+     *
+     * @param argb packed ARGB value of the color
+     * @return index of the nearest similar color, or of the added color, for getARGB()
+     */
+    public int findOrAdd(int argb) {
+        int nearest = findSimilar(argb);
+        if (nearest >= 0)
+            return nearest;
+        int hue = Hue.of(argb).ordinal();
+        ramps[hue].add(argb);
+        return (ramps[hue].size - 1) << HUE_BITS | hue;
     }
 
     /**
@@ -88,19 +153,20 @@ public class GradientPalette {
      *
      * @param color color to be compared with
      * @return true if the color exists, false otherwise.
+     * @deprecated the result is kept in the palette, which cannot be shared between threads; use findSimilar()
      */
+    @Deprecated
     public boolean exists(Pixel color) {
-        Pixel nearestHue = nearest(color, hues);
-        tempColor = nearestColor(color, palette.get(nearestHue).getRamp());
+        tempColor = findSimilar(color);
         return tempColor != null;
     }
 
     /**
-     * Condense the palette by reducing each ramp to 4 colors.
+     * Condense the palette by snapping the colors of each ramp to a gradient from its lightest to its darkest color.
      */
     public void condense() {
-        for (Map.Entry<Pixel, ColorRamp> entry : palette.entrySet())
-            entry.getValue().condense();
+        for (ColorRamp ramp : ramps)
+            ramp.condense();
     }
 
     /**
@@ -108,36 +174,51 @@ public class GradientPalette {
      * exists(Pixel color) method returns true.
      *
      * @return tempColor saved as a byproduct of exists(Pixel color)
+     * @deprecated use the result of findSimilar()
      */
+    @Deprecated
     public Pixel getColor() {
         return tempColor;
     }
 
+    /**
+     * Get a color of the palette.
+     *
+     * @param index index of the color, as returned by findSimilar() or findOrAdd()
+     * @return packed ARGB value of the color
+     */
+    public int getARGB(int index) {
+        return ramps[index & HUE_MASK].colors[index >>> HUE_BITS];
+    }
+
     /**
      * Get size of the palette (number of colors stored).
      *
      * @return size of the palette.
      */
     public int getSize() {
-        return palette.size();
+        int size = 0;
+        for (ColorRamp ramp : ramps)
+            size += ramp.size;
+        return size;
     }
 
     /**
-     * Get the nearest hue of the color.
+     * Get the index of the nearest color among packed colors, however different.
      *
-     * @param currentColor color benchmark
-     * @param colors       hues array
-     * @return Pixel of the nearest hue
+     * @param rgb    packed RGB value of the color benchmark
+     * @param colors packed RGB values of the colors to be compared with the benchmark
+     * @return index of the nearest color
      */
-    private static Pixel nearest(Pixel currentColor, Pixel colors[]) {
-        double min = currentColor.colorDifferenceVal(colors[0]);
-        Pixel nearest = colors[0];
+    private static int nearest(int rgb, int[] colors) {
+        double min = ColorMath.colorDifferenceVal(rgb, colors[0]);
+        int nearest = 0;
 
         for (int i = 1; i < colors.length; i++) {
-            double diff = currentColor.colorDifferenceVal(colors[i]);
+            double diff = ColorMath.colorDifferenceVal(rgb, colors[i]);
             if (diff < min) {
                 min = diff;
-                nearest = colors[i];
+                nearest = i;
             }
         }
 
@@ -179,93 +260,95 @@ public class GradientPalette {
      * @return the nearest color if it exists, null if the nearest color is not similar to the current color
      */
     public static Pixel nearestColor(Pixel currentColor, List<Pixel> colors) {
-        return nearestColor(currentColor, colors.toArray(new Pixel[colors.size()]));
+        if (colors.isEmpty())
+            return null;
+
+        double min = currentColor.colorDifferenceVal(colors.get(0));
+        Pixel nearest = colors.get(0);
+
+        for (int i = 1; i < colors.size(); i++) {
+            double diff = currentColor.colorDifferenceVal(colors.get(i));
+            if (diff < min) {
+                min = diff;
+                nearest = colors.get(i);
+            }
+        }
+
+        if (ColorMath.valueToScale(min).isSimilar())
+            return nearest;
+        return null;
     }
 
-    private class ColorRamp {
-        private ArrayList<Pixel> ramp;
+    /**
+     * Colors of one hue, packed, in insertion order.
+     */
+    private static class ColorRamp {
+        private int[] colors;
+        private int size;
 
         /**
          * Constructor.
          */
         ColorRamp() {
-            ramp = new ArrayList<>();
-        }
-
-        /**
-         * Add a Pixel(color) to the ramp.
-         *
-         * @param pixel Pixel to be added to ramp
-         */
-        void add(Pixel pixel) {
-            ramp.add(pixel);
+            colors = new int[STEPS];
         }
 
         /**
-         * Get ramp.
+         * Add a color to the ramp.
          *
-         * @return ramp
+         * @param argb packed ARGB value of the color
          */
-        List<Pixel> getRamp() {
-            return ramp;
+        void add(int argb) {
+            if (size == colors.length)
+                colors = Arrays.copyOf(colors, 2 * size);
+            colors[size++] = argb;
         }
 
         /**
-         * Condense the ramp by reducing the number of colors to 4.
+         * Condense the ramp by replacing every color with the nearest of STEPS colors interpolated from the lightest
+         * to the darkest color of the ramp.
          */
         void condense() {
-            if (ramp.size() == 0)
+            if (size == 0)
                 return;
 
-            Pixel[] gradient = Pixel.toPixels(ColorMath.generateGradient(getLightestColor().getRGBComponents(),
-                    getDarkestColor().getRGBComponents(), STEPS));
-
-            for (Pixel p : ramp) {
-                Pixel nearest = nearest(p, gradient);
-                p.setRGB(nearest.getRGB());
-            }
-        }
-
-        /**
-         * Get the lightest color in the ramp. The lightest color is the one with the highest luminance.
-         *
-         * @return lightest color
-         */
-        private Pixel getLightestColor() {
-            double max = ColorMath.luminance(ramp.get(0).getRGBComponents());
-            Pixel lightest = ramp.get(0);
-
-            for (int i = 1; i < ramp.size(); i++) {
-                Pixel current = ramp.get(i);
-                double luminance = ColorMath.luminance(current.getRGBComponents());
+            int lightest = colors[0], darkest = colors[0];
+            double max = luminance(lightest), min = max;
+            for (int i = 1; i < size; i++) {
+                double luminance = luminance(colors[i]);
                 if (luminance > max) {
                     max = luminance;
-                    lightest = current;
+                    lightest = colors[i];
+                }
+                if (luminance < min) {
+                    min = luminance;
+                    darkest = colors[i];
                 }
             }
 
-            return lightest;
+            int[] gradient = ColorMath.generateGradient(components(lightest), components(darkest), STEPS);
+            for (int i = 0; i < size; i++)
+                colors[i] = gradient[nearest(colors[i], gradient)];
         }
 
         /**
-         * Get the darkest color in the ramp. The darkest color is the one with the lowest luminance.
+         * Compute the luminance of a packed color.
          *
-         * @return darkest color
+         * @param rgb packed RGB value
+         * @return luminance of the color
          */
-        private Pixel getDarkestColor() {
-            double min = ColorMath.luminance(ramp.get(0).getRGBComponents());
-            Pixel darkest = ramp.get(0);
-
-            for (int i = 1; i < ramp.size(); i++) {
-                Pixel current = ramp.get(i);
-                double luminance = ColorMath.luminance(current.getRGBComponents());
-                if (luminance < min) {
-                    min = luminance;
-                    darkest = current;
-                }
-            }
+        private static double luminance(int rgb) {
+            return ColorMath.luminance(components(rgb));
+        }
 
-            return darkest;
+        /**
+         * Unpack the channels of a color.
+         *
+         * @param rgb packed RGB value
+         * @return red, green and blue values
+         */
+        private static int[] components(int rgb) {
+            return new int[]{rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF};
         }
     }
 }
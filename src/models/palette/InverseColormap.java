@@ -0,0 +1,253 @@
+package models.palette;
+
+import utils.ColorMath;
+import utils.LabTable;
+
+import java.util.Arrays;
+
+/**
+ * Inverse colormap of a palette: a grid over RGB space that gives the nearest palette color, by CIE76 on the shared
+ * Lab table, of every color in constant time. Cells whose colors all have the same nearest palette color hold its
+ * index. Cells on the boundary between palette colors hold the few palette colors that can be nearest to one of
+ * their colors, which are compared exactly. Lookups give the same index as a linear scan of the palette that keeps
+ * the first of equally near colors.
+ * <p>
+ * The colormap is immutable, so it can be shared by any number of threads.
+ */
+public class InverseColormap {
+    public static final int DEFAULT_BITS = 5;
+
+    // Slack on the distance bounds, covering the rounding of distances computed in doubles.
+    private static final double EPSILON = 1e-6;
+
+    // Lab bounding box {L min, L max, a min, a max, b min, b max} of the colors of every cell, per number of bits,
+    // built on first use.
+    private static final float[][] BOXES = new float[9][];
+
+    private final int[] colors;
+    private final float[] l, a, b;
+    private final int bits, shift;
+
+    // Palette index of every cell, or -(offset + 1) of the cell's candidate list in candidates: the number of
+    // candidates followed by their indices in increasing order.
+    private final int[] cells;
+    private final int[] candidates;
+
+    /**
+     * Constructor. Uses a grid of 2^DEFAULT_BITS cells along every channel.
+     *
+     * @param colors packed RGB or ARGB values of the palette colors, the alpha byte is ignored
+     */
+    public InverseColormap(int[] colors) {
+        this(colors, DEFAULT_BITS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param colors packed RGB or ARGB values of the palette colors, the alpha byte is ignored
+     * @param bits   number of high bits of every channel indexing the grid, from 1 to 8
+     */
+    public InverseColormap(int[] colors, int bits) {
+        if (colors.length == 0)
+            throw new IllegalArgumentException("Palette is empty");
+        if (bits < 1 || bits > 8)
+            throw new IllegalArgumentException("Bits per channel must be from 1 to 8, got " + bits);
+        this.colors = colors.clone();
+        this.bits = bits;
+        this.shift = 8 - bits;
+
+        int k = colors.length;
+        l = new float[k];
+        a = new float[k];
+        b = new float[k];
+        for (int j = 0; j < k; j++) {
+            l[j] = LabTable.lightness(colors[j]);
+            a[j] = LabTable.a(colors[j]);
+            b[j] = LabTable.b(colors[j]);
+        }
+
+        float[] boxes = boxes(bits);
+        int side = 1 << bits;
+        cells = new int[side * side * side];
+        int[] lists = new int[1024];
+        int used = 0;
+        double[] nearDistances = new double[k];
+
+        for (int cell = 0; cell < cells.length; cell++) {
+            // Every color of the cell lies in its Lab box. A palette color can only be nearest to one of them if its
+            // distance to the box is within the farthest distance to the box of the palette color closest to it.
+            int box = 6 * cell;
+            double bound = Double.MAX_VALUE;
+            for (int j = 0; j < k; j++) {
+                double lLow = l[j] - boxes[box], lHigh = boxes[box + 1] - l[j];
+                double aLow = a[j] - boxes[box + 2], aHigh = boxes[box + 3] - a[j];
+                double bLow = b[j] - boxes[box + 4], bHigh = boxes[box + 5] - b[j];
+                nearDistances[j] = Math.sqrt(outside(lLow, lHigh) + outside(aLow, aHigh) + outside(bLow, bHigh));
+                bound = Math.min(bound, Math.sqrt(Math.max(lLow * lLow, lHigh * lHigh)
+                        + Math.max(aLow * aLow, aHigh * aHigh) + Math.max(bLow * bLow, bHigh * bHigh)));
+            }
+            bound += EPSILON * (1 + bound);
+
+            int count = 0, first = -1;
+            for (int j = 0; j < k; j++) {
+                if (nearDistances[j] <= bound) {
+                    count++;
+                    if (first < 0)
+                        first = j;
+                }
+            }
+            if (count == 1) {
+                cells[cell] = first;
+                continue;
+            }
+
+            if (used + count + 1 > lists.length)
+                lists = Arrays.copyOf(lists, Math.max(2 * lists.length, used + count + 1));
+            cells[cell] = -(used + 1);
+            lists[used++] = count;
+            for (int j = 0; j < k; j++) {
+                if (nearDistances[j] <= bound)
+                    lists[used++] = j;
+            }
+        }
+        candidates = Arrays.copyOf(lists, used);
+    }
+
+    /**
+     * Get the number of palette colors.
+     *
+     * @return size of the palette
+     */
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Get a palette color.
+     *
+     * @param index index of the color
+     * @return packed value of the color, as given to the constructor
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Get the number of high bits of every channel indexing the grid.
+     *
+     * @return bits per channel
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Get the fraction of the cells that hold a single palette color, so that their lookups are a single read.
+     *
+     * @return fraction of resolved cells, from 0 to 1
+     */
+    public double getResolvedFraction() {
+        int resolved = 0;
+        for (int cell : cells) {
+            if (cell >= 0)
+                resolved++;
+        }
+        return resolved / (double) cells.length;
+    }
+
+    /**
+     * Obtain the index of the nearest palette color.
+     *
+     * @param rgb packed RGB value, the alpha byte is ignored
+     * @return index of the nearest color
+     */
+    public int nearestIndex(int rgb) {
+        int cell = ((rgb >> 16 & 0xFF) >> shift) << 2 * bits | ((rgb >> 8 & 0xFF) >> shift) << bits
+                | (rgb & 0xFF) >> shift;
+        int entry = cells[cell];
+        if (entry >= 0)
+            return entry;
+
+        // Compare the candidates exactly, keeping the first of equally near colors
+        int offset = -entry - 1, end = offset + 1 + candidates[offset];
+        float cl = LabTable.lightness(rgb), ca = LabTable.a(rgb), cb = LabTable.b(rgb);
+        int nearest = candidates[offset + 1];
+        double min = ColorMath.cie76(cl, ca, cb, l[nearest], a[nearest], b[nearest]);
+        for (int i = offset + 2; i < end; i++) {
+            int j = candidates[i];
+            double diff = ColorMath.cie76(cl, ca, cb, l[j], a[j], b[j]);
+            if (diff < min) {
+                min = diff;
+                nearest = j;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Obtain the nearest palette color.
+     *
+     * @param rgb packed RGB value, the alpha byte is ignored
+     * @return packed value of the nearest color, as given to the constructor
+     */
+    public int nearestColor(int rgb) {
+        return colors[nearestIndex(rgb)];
+    }
+
+    /**
+     * Get the squared distance from a value to a range along one axis.
+     *
+     * @param low  value minus the minimum of the range
+     * @param high maximum of the range minus the value
+     * @return squared distance, 0 if the value is within the range
+     */
+    private static double outside(double low, double high) {
+        double distance = Math.max(0, Math.max(-low, -high));
+        return distance * distance;
+    }
+
+    /**
+     * Get the Lab bounding box of the colors of every cell, computed over all colors the first time a grid size is
+     * used.
+     *
+     * @param bits number of high bits of every channel indexing the grid
+     * @return {L min, L max, a min, a max, b min, b max} of every cell
+     */
+    private static float[] boxes(int bits) {
+        synchronized (BOXES) {
+            if (BOXES[bits] != null)
+                return BOXES[bits];
+
+            int shift = 8 - bits, side = 1 << bits;
+            float[] boxes = new float[6 * side * side * side];
+            for (int i = 0; i < boxes.length; i += 2) {
+                boxes[i] = Float.MAX_VALUE;
+                boxes[i + 1] = -Float.MAX_VALUE;
+            }
+            for (int rgb = 0; rgb < 1 << 24; rgb++) {
+                int box = 6 * ((((rgb >> 16) >> shift) << 2 * bits) | (((rgb >> 8 & 0xFF) >> shift) << bits)
+                        | ((rgb & 0xFF) >> shift));
+                include(boxes, box, LabTable.lightness(rgb));
+                include(boxes, box + 2, LabTable.a(rgb));
+                include(boxes, box + 4, LabTable.b(rgb));
+            }
+            BOXES[bits] = boxes;
+            return boxes;
+        }
+    }
+
+    /**
+     * Extend a range of a bounding box to include a value.
+     *
+     * @param boxes bounding boxes
+     * @param range index of the minimum of the range, followed by its maximum
+     * @param value value to include
+     */
+    private static void include(float[] boxes, int range, float value) {
+        if (value < boxes[range])
+            boxes[range] = value;
+        if (value > boxes[range + 1])
+            boxes[range + 1] = value;
+    }
+}
@@ -0,0 +1,641 @@
+package models.palette;
+
+import utils.LabTable;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * K-means clustering of Lab colors stored as structure-of-arrays floats, using the CIE76 (Euclidean) distance.
+ * Implements Hamerly's algorithm: every point keeps an upper bound on the distance to its own center and a lower
+ * bound on the distance to all other centers. Once the centers settle, most points are skipped without computing
+ * any distance.
+ * Reference: Hamerly, G. (2010). Making k-means even faster. SIAM International Conference on Data Mining.
+ * <p>
+ * The points are processed in fixed-size chunks on an executor. Partial sums are kept per chunk and merged in chunk
+ * order, so the same seed gives the same centers whatever the number of threads.
+ */
+public class KMeans {
+    public static final int DEFAULT_MAX_ITERATIONS = 200;
+    public static final double DEFAULT_TOLERANCE = 1e-3;
+
+    // Points per chunk. Fixed, so that the order of floating point sums does not depend on the executor.
+    private static final int CHUNK_SIZE = 4096;
+
+    public enum Seeding {
+        RANDOM, KMEANS_PLUS_PLUS
+    }
+
+    private final int k;
+    private final int maxIterations;
+    private final double tolerance;
+    private final Seeding seeding;
+    private final long seed;
+    private final Executor executor;
+
+    /**
+     * Constructor with default iterations, tolerance and k-means++ seeding.
+     *
+     * @param k number of clusters
+     */
+    public KMeans(int k) {
+        this(k, DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE, Seeding.KMEANS_PLUS_PLUS, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k             number of clusters
+     * @param maxIterations maximum number of assignment/update iterations
+     * @param tolerance     clustering stops once no center moves further than this distance (delta E)
+     * @param seeding       how the initial centers are picked
+     * @param seed          seed of the random generator used for seeding
+     */
+    public KMeans(int k, int maxIterations, double tolerance, Seeding seeding, long seed) {
+        this(k, maxIterations, tolerance, seeding, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k             number of clusters
+     * @param maxIterations maximum number of assignment/update iterations
+     * @param tolerance     clustering stops once no center moves further than this distance (delta E)
+     * @param seeding       how the initial centers are picked
+     * @param seed          seed of the random generator used for seeding
+     * @param executor      executor running the chunks of points, null to run them on the calling thread
+     */
+    public KMeans(int k, int maxIterations, double tolerance, Seeding seeding, long seed, Executor executor) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.seeding = seeding;
+        this.seed = seed;
+        this.executor = executor;
+    }
+
+    /**
+     * Cluster the points. If there are fewer points than clusters, every point becomes its own center.
+     *
+     * @param l L values of the points
+     * @param a a values of the points
+     * @param b b values of the points
+     * @return the centers and the assignment of every point
+     */
+    public Result cluster(float[] l, float[] a, float[] b) {
+        return cluster(l, a, b, null);
+    }
+
+    /**
+     * Cluster weighted points, eg. the entries of a color histogram weighted by their pixel counts. Each center is
+     * the weighted mean of its points, and k-means++ seeding draws points in proportion to their weight. If there
+     * are fewer points than clusters, every point becomes its own center.
+     *
+     * @param l       L values of the points
+     * @param a       a values of the points
+     * @param b       b values of the points
+     * @param weights positive weights of the points, null to weigh every point 1
+     * @return the centers and the assignment of every point
+     */
+    public Result cluster(float[] l, float[] a, float[] b, float[] weights) {
+        int n = l.length;
+        int clusters = Math.min(k, n);
+        Result result = new Result(clusters, n);
+        seed(l, a, b, weights, result);
+
+        float[] upper = new float[n], lower = new float[n];
+        forEachChunk(n, chunk -> {
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(n, i + CHUNK_SIZE); i < end; i++)
+                assignNearest(l[i], a[i], b[i], i, result, upper, lower);
+        });
+
+        float[] movement = new float[clusters], halfGap = new float[clusters];
+        while (result.iterations < maxIterations) {
+            result.iterations++;
+            float maxMovement = update(l, a, b, weights, result, upper, movement);
+            if (maxMovement <= tolerance)
+                break;
+
+            updateBounds(result, upper, lower, movement);
+            computeHalfGaps(result, halfGap);
+            forEachChunk(n, chunk -> {
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(n, i + CHUNK_SIZE); i < end; i++) {
+                    int center = result.assignments[i];
+                    float bound = Math.max(halfGap[center], lower[i]);
+                    if (upper[i] <= bound)
+                        continue;
+
+                    upper[i] = distance(l[i], a[i], b[i], result, center);
+                    if (upper[i] <= bound)
+                        continue;
+
+                    assignNearest(l[i], a[i], b[i], i, result, upper, lower);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Cluster a packed RGB raster with mini-batch k-means. Each iteration draws a random batch of pixels, assigns
+     * them to their nearest centers and moves each center towards its pixels with a per-center learning rate of
+     * 1 / (points seen). The cost depends on the batch size and iteration budget, not on the raster size. The
+     * returned result holds no point assignments.
+     * Reference: Sculley, D. (2010). Web-scale k-means clustering. International Conference on World Wide Web.
+     *
+     * @param raster     packed RGB raster in row-major order
+     * @param width      width of the raster
+     * @param height     height of the raster
+     * @param stride     row stride of the raster
+     * @param batchSize  number of pixels drawn per iteration
+     * @param iterations maximum number of batches
+     * @return the centers, with the number of pixels that moved each center as its cluster size
+     * @throws IllegalArgumentException if the raster is empty or the batch size is less than 1
+     */
+    public Result clusterMiniBatch(int[] raster, int width, int height, int stride, int batchSize, int iterations) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Cannot cluster an empty " + width + "x" + height + " raster");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+
+        Random random = new Random(seed);
+        int clusters = Math.min(k, width * height);
+        float[] l = new float[Math.max(batchSize, clusters)], a = new float[l.length], b = new float[l.length];
+        Result result = new Result(clusters, 0);
+
+        // The first sample seeds every center, later ones only need a batch
+        sample(raster, width, height, stride, random, l.length, l, a, b);
+        seed(l, a, b, null, result);
+
+        int[] nearest = new int[batchSize];
+        while (result.iterations < iterations) {
+            result.iterations++;
+            sample(raster, width, height, stride, random, batchSize, l, a, b);
+            forEachChunk(batchSize, chunk -> {
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(batchSize, i + CHUNK_SIZE); i < end; i++)
+                    nearest[i] = nearestCenter(l[i], a[i], b[i], result);
+            });
+
+            float[] oldL = result.l.clone(), oldA = result.a.clone(), oldB = result.b.clone();
+            for (int i = 0; i < batchSize; i++) {
+                int center = nearest[i];
+                float rate = 1f / ++result.sizes[center];
+                result.l[center] += rate * (l[i] - result.l[center]);
+                result.a[center] += rate * (a[i] - result.a[center]);
+                result.b[center] += rate * (b[i] - result.b[center]);
+            }
+
+            float maxMovement = 0;
+            for (int j = 0; j < clusters; j++)
+                maxMovement = Math.max(maxMovement, distance(oldL[j], oldA[j], oldB[j], result, j));
+            if (maxMovement <= tolerance)
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Fill the start of the arrays with the Lab values of pixels drawn uniformly at random from a raster.
+     *
+     * @param raster packed RGB raster in row-major order
+     * @param width  width of the raster
+     * @param height height of the raster
+     * @param stride row stride of the raster
+     * @param random random generator
+     * @param count  number of pixels to draw
+     * @param l      array that receives the L values
+     * @param a      array that receives the a values
+     * @param b      array that receives the b values
+     */
+    private static void sample(int[] raster, int width, int height, int stride, Random random, int count, float[] l,
+                               float[] a, float[] b) {
+        for (int i = 0; i < count; i++) {
+            int pixel = random.nextInt(width * height);
+            int rgb = raster[(pixel / width) * stride + pixel % width];
+            l[i] = LabTable.lightness(rgb);
+            a[i] = LabTable.a(rgb);
+            b[i] = LabTable.b(rgb);
+        }
+    }
+
+    /**
+     * Find the center nearest to a Lab color.
+     *
+     * @param pl     L value of the color
+     * @param pa     a value of the color
+     * @param pb     b value of the color
+     * @param result result holding the centers
+     * @return index of the nearest center
+     */
+    private static int nearestCenter(float pl, float pa, float pb, Result result) {
+        float min = Float.MAX_VALUE;
+        int nearest = 0;
+        for (int j = 0; j < result.size(); j++) {
+            float distance = distance(pl, pa, pb, result, j);
+            if (distance < min) {
+                min = distance;
+                nearest = j;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Pick the initial centers.
+     *
+     * @param l       L values of the points
+     * @param a       a values of the points
+     * @param b       b values of the points
+     * @param weights weights of the points, null if unweighted
+     * @param result  result to write the centers to
+     */
+    private void seed(float[] l, float[] a, float[] b, float[] weights, Result result) {
+        int n = l.length, clusters = result.size();
+        Random random = new Random(seed);
+
+        if (clusters == n || seeding == Seeding.RANDOM) {
+            // Partial Fisher-Yates shuffle picks distinct points.
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+            for (int j = 0; j < clusters; j++) {
+                int pick = j + (clusters == n ? 0 : random.nextInt(n - j));
+                int point = order[pick];
+                order[pick] = order[j];
+                order[j] = point;
+                result.setCenter(j, l[point], a[point], b[point]);
+            }
+            return;
+        }
+
+        // k-means++: each next center is drawn with probability proportional to the squared distance to the
+        // nearest center picked so far.
+        double[] nearest = new double[n];
+        double[] chunkTotals = new double[chunks(n)];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        int point = random.nextInt(n);
+        for (int j = 0; j < clusters; j++) {
+            result.setCenter(j, l[point], a[point], b[point]);
+
+            final int center = j;
+            forEachChunk(n, chunk -> {
+                double total = 0;
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(n, i + CHUNK_SIZE); i < end; i++) {
+                    float distance = distance(l[i], a[i], b[i], result, center);
+                    nearest[i] = Math.min(nearest[i], (double) distance * distance);
+                    total += weights == null ? nearest[i] : nearest[i] * weights[i];
+                }
+                chunkTotals[chunk] = total;
+            });
+
+            double total = 0;
+            for (double chunkTotal : chunkTotals)
+                total += chunkTotal;
+
+            // Find the chunk holding the target first, then the point within it.
+            double target = random.nextDouble() * total;
+            int chunk = 0;
+            while (chunk < chunkTotals.length - 1 && target >= chunkTotals[chunk])
+                target -= chunkTotals[chunk++];
+            int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+            point = end - 1;
+            for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                target -= weights == null ? nearest[i] : nearest[i] * weights[i];
+                if (target < 0) {
+                    point = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign a point to its nearest center, and reset its bounds to the exact distances to the nearest and second
+     * nearest centers.
+     *
+     * @param pl     L value of the point
+     * @param pa     a value of the point
+     * @param pb     b value of the point
+     * @param i      index of the point
+     * @param result result holding the centers and assignments
+     * @param upper  upper bounds of all points
+     * @param lower  lower bounds of all points
+     */
+    private static void assignNearest(float pl, float pa, float pb, int i, Result result, float[] upper,
+                                      float[] lower) {
+        float min = Float.MAX_VALUE, second = Float.MAX_VALUE;
+        int nearest = 0;
+        for (int j = 0; j < result.size(); j++) {
+            float distance = distance(pl, pa, pb, result, j);
+            if (distance < min) {
+                second = min;
+                min = distance;
+                nearest = j;
+            } else if (distance < second) {
+                second = distance;
+            }
+        }
+        result.assignments[i] = nearest;
+        upper[i] = min;
+        lower[i] = second;
+    }
+
+    /**
+     * Move every center to the weighted mean of its points. A center that lost all its points is moved to the point
+     * that is furthest from its own center.
+     *
+     * @param l        L values of the points
+     * @param a        a values of the points
+     * @param b        b values of the points
+     * @param weights  weights of the points, null if unweighted
+     * @param result   result holding the centers and assignments
+     * @param upper    upper bounds of all points
+     * @param movement array that receives the distance moved by each center
+     * @return the largest distance moved by a center
+     */
+    private float update(float[] l, float[] a, float[] b, float[] weights, Result result, float[] upper,
+                         float[] movement) {
+        int clusters = result.size();
+        double[][] partialSums = new double[chunks(l.length)][];
+        int[][] partialSizes = new int[partialSums.length][];
+
+        forEachChunk(l.length, chunk -> {
+            double[] sums = new double[clusters * 4];
+            int[] sizes = new int[clusters];
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(l.length, i + CHUNK_SIZE); i < end; i++) {
+                int center = result.assignments[i];
+                float weight = weights == null ? 1 : weights[i];
+                sums[center * 4] += l[i] * weight;
+                sums[center * 4 + 1] += a[i] * weight;
+                sums[center * 4 + 2] += b[i] * weight;
+                sums[center * 4 + 3] += weight;
+                sizes[center]++;
+            }
+            partialSums[chunk] = sums;
+            partialSizes[chunk] = sizes;
+        });
+
+        // Merge the partial sums in chunk order.
+        double[] sumL = new double[clusters], sumA = new double[clusters], sumB = new double[clusters],
+                sumWeight = new double[clusters];
+        Arrays.fill(result.sizes, 0);
+        for (int chunk = 0; chunk < partialSums.length; chunk++) {
+            for (int j = 0; j < clusters; j++) {
+                sumL[j] += partialSums[chunk][j * 4];
+                sumA[j] += partialSums[chunk][j * 4 + 1];
+                sumB[j] += partialSums[chunk][j * 4 + 2];
+                sumWeight[j] += partialSums[chunk][j * 4 + 3];
+                result.sizes[j] += partialSizes[chunk][j];
+            }
+        }
+
+        float maxMovement = 0;
+        boolean[] reseeded = null;
+        for (int j = 0; j < clusters; j++) {
+            float newL, newA, newB;
+            if (sumWeight[j] > 0) {
+                newL = (float) (sumL[j] / sumWeight[j]);
+                newA = (float) (sumA[j] / sumWeight[j]);
+                newB = (float) (sumB[j] / sumWeight[j]);
+            } else {
+                if (reseeded == null)
+                    reseeded = new boolean[l.length];
+                int furthest = furthestPoint(upper, reseeded);
+                reseeded[furthest] = true;
+                newL = l[furthest];
+                newA = a[furthest];
+                newB = b[furthest];
+            }
+
+            movement[j] = distance(newL, newA, newB, result, j);
+            maxMovement = Math.max(maxMovement, movement[j]);
+            result.setCenter(j, newL, newA, newB);
+        }
+        return maxMovement;
+    }
+
+    /**
+     * Find the point with the largest upper bound that has not been used to reseed a center yet.
+     *
+     * @param upper    upper bounds of all points
+     * @param reseeded points already used to reseed a center
+     * @return index of the point
+     */
+    private static int furthestPoint(float[] upper, boolean[] reseeded) {
+        int furthest = -1;
+        for (int i = 0; i < upper.length; i++)
+            if (!reseeded[i] && (furthest < 0 || upper[i] > upper[furthest]))
+                furthest = i;
+        return furthest;
+    }
+
+    /**
+     * Loosen the bounds of every point by the distance its centers moved.
+     *
+     * @param result   result holding the assignments
+     * @param upper    upper bounds of all points
+     * @param lower    lower bounds of all points
+     * @param movement distance moved by each center
+     */
+    private void updateBounds(Result result, float[] upper, float[] lower, float[] movement) {
+        // The lower bound must drop by the largest movement of any other center, so keep the top two movements.
+        int largest = 0;
+        float secondMovement = 0;
+        for (int j = 1; j < movement.length; j++) {
+            if (movement[j] > movement[largest]) {
+                secondMovement = movement[largest];
+                largest = j;
+            } else if (movement[j] > secondMovement) {
+                secondMovement = movement[j];
+            }
+        }
+
+        final int largestCenter = largest;
+        final float largestMovement = movement[largest], otherMovement = secondMovement;
+        forEachChunk(upper.length, chunk -> {
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(upper.length, i + CHUNK_SIZE); i < end; i++) {
+                int center = result.assignments[i];
+                upper[i] += movement[center];
+                lower[i] -= center == largestCenter ? otherMovement : largestMovement;
+            }
+        });
+    }
+
+    /**
+     * Get the number of chunks needed to cover a number of points.
+     *
+     * @param n number of points
+     * @return number of chunks
+     */
+    private static int chunks(int n) {
+        return (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Run a task for every chunk of points on the executor, and wait for all of them. Each task receives the index
+     * of its chunk and must only write data owned by that chunk.
+     *
+     * @param n    number of points
+     * @param task task to run for every chunk index
+     */
+    private void forEachChunk(int n, IntConsumer task) {
+        int chunks = chunks(n);
+        if (executor == null || chunks <= 1) {
+            for (int chunk = 0; chunk < chunks; chunk++)
+                task.accept(chunk);
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int index = chunk;
+            futures[chunk] = CompletableFuture.runAsync(() -> task.accept(index), executor);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    /**
+     * Compute half the distance from every center to its nearest other center. A point closer than that to its
+     * own center cannot be closer to any other center.
+     *
+     * @param result  result holding the centers
+     * @param halfGap array that receives the half distances
+     */
+    private static void computeHalfGaps(Result result, float[] halfGap) {
+        Arrays.fill(halfGap, Float.MAX_VALUE);
+        for (int j = 0; j < result.size(); j++) {
+            for (int m = j + 1; m < result.size(); m++) {
+                float half = distance(result.l[j], result.a[j], result.b[j], result, m) / 2;
+                halfGap[j] = Math.min(halfGap[j], half);
+                halfGap[m] = Math.min(halfGap[m], half);
+            }
+        }
+    }
+
+    /**
+     * Compute the CIE76 distance between a Lab color and a center.
+     *
+     * @param pl     L value of the color
+     * @param pa     a value of the color
+     * @param pb     b value of the color
+     * @param result result holding the centers
+     * @param center index of the center
+     * @return distance between the color and the center
+     */
+    private static float distance(float pl, float pa, float pb, Result result, int center) {
+        float dl = pl - result.l[center], da = pa - result.a[center], db = pb - result.b[center];
+        return (float) Math.sqrt(dl * dl + da * da + db * db);
+    }
+
+    /**
+     * Centers found by the clustering, along with the assignment of every point.
+     */
+    public static class Result {
+        private final float[] l, a, b;
+        private final int[] sizes;
+        private final int[] assignments;
+        private int iterations;
+
+        /**
+         * Constructor.
+         *
+         * @param clusters number of centers
+         * @param points   number of points
+         */
+        Result(int clusters, int points) {
+            l = new float[clusters];
+            a = new float[clusters];
+            b = new float[clusters];
+            sizes = new int[clusters];
+            assignments = new int[points];
+        }
+
+        /**
+         * Set the Lab value of a center.
+         *
+         * @param center index of the center
+         * @param cl     L value
+         * @param ca     a value
+         * @param cb     b value
+         */
+        void setCenter(int center, float cl, float ca, float cb) {
+            l[center] = cl;
+            a[center] = ca;
+            b[center] = cb;
+        }
+
+        /**
+         * Get the number of centers.
+         *
+         * @return number of centers
+         */
+        public int size() {
+            return l.length;
+        }
+
+        /**
+         * Get the L value of a center.
+         *
+         * @param center index of the center
+         * @return L value
+         */
+        public float getL(int center) {
+            return l[center];
+        }
+
+        /**
+         * Get the a value of a center.
+         *
+         * @param center index of the center
+         * @return a value
+         */
+        public float getA(int center) {
+            return a[center];
+        }
+
+        /**
+         * Get the b value of a center.
+         *
+         * @param center index of the center
+         * @return b value
+         */
+        public float getB(int center) {
+            return b[center];
+        }
+
+        /**
+         * Get the number of points assigned to a center.
+         *
+         * @param center index of the center
+         * @return number of points
+         */
+        public int getClusterSize(int center) {
+            return sizes[center];
+        }
+
+        /**
+         * Get the index of the center a point is assigned to.
+         *
+         * @param point index of the point
+         * @return index of the center
+         */
+        public int getAssignment(int point) {
+            return assignments[point];
+        }
+
+        /**
+         * Get the number of iterations run.
+         *
+         * @return number of iterations
+         */
+        public int getIterations() {
+            return iterations;
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package models.palette;
 
+import models.Picture;
 import models.Pixel;
-import org.apache.commons.math3.ml.clustering.CentroidCluster;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
+import utils.ColorMath;
+import utils.LabTable;
 
 import java.util.List;
 
@@ -10,31 +11,90 @@ import java.util.List;
  * KMeans palette. Creates the palette using KMeans color quantization.
  */
 public class KMeansPalette {
-    private Pixel[][] image;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_BATCH_ITERATIONS = 200;
+
     private Pixel[] palette;
     private int paletteSize;
+    private NearestColorCache cache;
+    private InverseColormap colormap;
 
     /**
      * Constructor. Initializes instant variables.
      */
     public KMeansPalette(Pixel[][] image, int paletteSize) {
-        this.image = image;
+        this(image, paletteSize, NearestColorCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor. Initializes instant variables with the given nearest color cache capacity.
+     *
+     * @param image       image to build the palette from
+     * @param paletteSize number of colors in the palette
+     * @param cacheSize   maximum number of colors memoized by nearestColor()
+     */
+    public KMeansPalette(Pixel[][] image, int paletteSize, int cacheSize) {
         this.paletteSize = paletteSize;
-        initPalette();
+        this.cache = new NearestColorCache(cacheSize);
+        initPalette(image);
+    }
+
+    /**
+     * Constructor. Builds the palette from the full-resolution picture with mini-batch K-means, so the cost is
+     * bounded by the batch size and iteration budget rather than the picture size.
+     *
+     * @param picture     picture to build the palette from
+     * @param paletteSize number of colors in the palette
+     * @param batchSize   number of pixels drawn per iteration
+     * @param iterations  maximum number of batches
+     * @throws IllegalArgumentException if the picture is empty or the batch size is less than 1
+     */
+    public KMeansPalette(Picture picture, int paletteSize, int batchSize, int iterations) {
+        if (picture.getWidth() < 1 || picture.getHeight() < 1)
+            throw new IllegalArgumentException("Cannot build a palette from an empty picture");
+        this.paletteSize = paletteSize;
+        this.cache = new NearestColorCache(NearestColorCache.DEFAULT_CAPACITY);
+        KMeans kMeans = new KMeans(paletteSize);
+        palette = toPixels(kMeans.clusterMiniBatch(picture.getRaster(), picture.getWidth(), picture.getHeight(),
+                picture.getStride(), batchSize, iterations));
+    }
+
+    /**
+     * Constructor. Builds the palette with weighted K-means over the entries of a color histogram, so each distinct
+     * color is clustered once, weighted by the number of pixels that have it.
+     *
+     * @param histogram   histogram of the image to build the palette from
+     * @param paletteSize number of colors in the palette
+     */
+    public KMeansPalette(ColorHistogram histogram, int paletteSize) {
+        this.paletteSize = paletteSize;
+        this.cache = new NearestColorCache(NearestColorCache.DEFAULT_CAPACITY);
+
+        int[] rgb = new int[histogram.size()];
+        float[] weights = new float[histogram.size()];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = histogram.getRGB(i);
+            weights[i] = histogram.getCount(i);
+        }
+        palette = cluster(rgb, weights, new KMeans(paletteSize));
     }
 
     /**
      * Initialize the palette through K-means color quantization.
+     *
+     * @param image image to build the palette from
      */
-    private void initPalette() {
-        KMeansPlusPlusClusterer<PixelClusterable> clusterer = new KMeansPlusPlusClusterer<>(paletteSize, 200, new
-                LabDistanceMeasure());
-        System.out.println("clustering...");
-        System.out.println(PixelClusterable.toClusterable(image).size());
-        List<CentroidCluster<PixelClusterable>> centroidClusters = clusterer.cluster(PixelClusterable.toClusterable
-                (image));
-        System.out.println("clustering complete");
-        palette = PixelClusterable.toPixel(centroidClusters);
+    private void initPalette(Pixel[][] image) {
+        int count = 0;
+        for (Pixel[] row : image)
+            count += row.length;
+
+        int[] rgb = new int[count];
+        for (int i = 0, n = 0; i < image.length; i++)
+            for (int j = 0; j < image[i].length; j++)
+                rgb[n++] = image[i][j].getRGB();
+
+        palette = cluster(rgb, null, new KMeans(paletteSize));
     }
 
     /**
@@ -44,11 +104,47 @@ public class KMeansPalette {
      */
     public void condense(int paletteSize) {
         this.paletteSize = paletteSize;
-        KMeansPlusPlusClusterer<PixelClusterable> clusterer = new KMeansPlusPlusClusterer<>(paletteSize, 500, new
-                LabDistanceMeasure());
-        List<CentroidCluster<PixelClusterable>> centroidClusters = clusterer.cluster(PixelClusterable.toClusterable
-                (palette));
-        palette = PixelClusterable.toPixel(centroidClusters);
+
+        int[] rgb = new int[palette.length];
+        for (int i = 0; i < palette.length; i++)
+            rgb[i] = palette[i].getRGB();
+
+        palette = cluster(rgb, null, new KMeans(paletteSize, 500, KMeans.DEFAULT_TOLERANCE,
+                KMeans.Seeding.KMEANS_PLUS_PLUS, 0));
+        cache.clear();
+        colormap = null;
+    }
+
+    /**
+     * Cluster colors in Lab space and convert the centers back to colors.
+     *
+     * @param rgb     packed RGB values of the colors to cluster
+     * @param weights weights of the colors, null to weigh every color 1
+     * @param kMeans  clustering engine
+     * @return the centers as colors
+     */
+    private static Pixel[] cluster(int[] rgb, float[] weights, KMeans kMeans) {
+        float[] l = new float[rgb.length], a = new float[rgb.length], b = new float[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            l[i] = LabTable.lightness(rgb[i]);
+            a[i] = LabTable.a(rgb[i]);
+            b[i] = LabTable.b(rgb[i]);
+        }
+
+        return toPixels(kMeans.cluster(l, a, b, weights));
+    }
+
+    /**
+     * Convert the centers found by K-means into colors.
+     *
+     * @param result result of the clustering
+     * @return the centers as colors
+     */
+    private static Pixel[] toPixels(KMeans.Result result) {
+        Pixel[] centers = new Pixel[result.size()];
+        for (int j = 0; j < centers.length; j++)
+            centers[j] = new Pixel(ColorMath.labToRgb(result.getL(j), result.getA(j), result.getB(j)));
+        return centers;
     }
 
     /**
@@ -61,13 +157,84 @@ public class KMeansPalette {
     }
 
     /**
-     * Obtain the nearest color in this palette. Chains to static nearestColor().
+     * Get the inverse colormap of the palette, built on first use and rebuilt after the palette is condensed.
+     * Building it costs about as much as mapping a few hundred thousand colors through nearestColor(), after which
+     * every lookup is a table read.
+     *
+     * @return inverse colormap, giving the same colors as nearestColor()
+     */
+    public synchronized InverseColormap getColormap() {
+        if (colormap == null) {
+            int[] argb = new int[palette.length];
+            for (int i = 0; i < palette.length; i++)
+                argb[i] = palette[i].getARGB();
+            colormap = new InverseColormap(argb);
+        }
+        return colormap;
+    }
+
+    /**
+     * Get the number of nearestColor() calls answered from the cache.
+     *
+     * @return number of cache hits
+     */
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Get the number of nearestColor() calls that had to scan the palette.
+     *
+     * @return number of cache misses
+     */
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Get the number of colors evicted from the cache to make room for others.
+     *
+     * @return number of cache evictions
+     */
+    public long getCacheEvictions() {
+        return cache.getEvictions();
+    }
+
+    /**
+     * Obtain the nearest color in this palette. The palette index of each color is memoized until the palette is
+     * condensed.
      *
      * @param currentColor color benchmark
      * @return the nearest color
      */
     public Pixel nearestColor(Pixel currentColor) {
-        return nearestColor(currentColor, palette);
+        return palette[cachedIndex(currentColor.getRGB())];
+    }
+
+    /**
+     * Obtain the nearest color in this palette for a packed color, without allocating. The palette index of each
+     * color is memoized until the palette is condensed.
+     *
+     * @param rgb packed RGB value of the color benchmark, the alpha byte is ignored
+     * @return packed ARGB value of the nearest color
+     */
+    public int nearestColor(int rgb) {
+        return palette[cachedIndex(rgb)].getARGB();
+    }
+
+    /**
+     * Obtain the index of the nearest color in this palette through the cache.
+     *
+     * @param rgb packed RGB value of the color benchmark
+     * @return index of the nearest color
+     */
+    private int cachedIndex(int rgb) {
+        int index = cache.get(rgb);
+        if (index < 0) {
+            index = nearestIndex(rgb, palette);
+            cache.put(rgb, index);
+        }
+        return index;
     }
 
     /**
@@ -78,14 +245,25 @@ public class KMeansPalette {
      * @return the nearest color
      */
     public static Pixel nearestColor(Pixel currentColor, Pixel colors[]) {
-        double min = currentColor.colorDifferenceVal(colors[0]);
-        Pixel nearest = colors[0];
+        return colors[nearestIndex(currentColor.getRGB(), colors)];
+    }
+
+    /**
+     * Obtain the index of the nearest color in an array of colors.
+     *
+     * @param rgb    packed RGB value of the color benchmark
+     * @param colors array of colors to be compared with the benchmark
+     * @return index of the nearest color
+     */
+    private static int nearestIndex(int rgb, Pixel colors[]) {
+        double min = ColorMath.colorDifferenceVal(rgb, colors[0].getRGB());
+        int nearest = 0;
 
         for (int i = 1; i < colors.length; i++) {
-            double diff = currentColor.colorDifferenceVal(colors[i]);
+            double diff = ColorMath.colorDifferenceVal(rgb, colors[i].getRGB());
             if (diff < min) {
                 min = diff;
-                nearest = colors[i];
+                nearest = i;
             }
         }
         return nearest;
@@ -99,6 +277,16 @@ public class KMeansPalette {
      * @return the nearest color
      */
     public static Pixel nearestColor(Pixel currentColor, List<Pixel> colors) {
-        return nearestColor(currentColor, colors.toArray(new Pixel[colors.size()]));
+        double min = currentColor.colorDifferenceVal(colors.get(0));
+        Pixel nearest = colors.get(0);
+
+        for (int i = 1; i < colors.size(); i++) {
+            double diff = currentColor.colorDifferenceVal(colors.get(i));
+            if (diff < min) {
+                min = diff;
+                nearest = colors.get(i);
+            }
+        }
+        return nearest;
     }
 }
@@ -0,0 +1,141 @@
+package models.palette;
+
+import utils.ColorMath;
+import utils.LabTable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Uniform grid over Lab space. Colors are bucketed into cubic cells whose side equals the similarity threshold, so
+ * every color closer than the threshold to a query lies in the query's cell or one of its 26 neighbors. Colors can
+ * be inserted one at a time and are identified by their insertion index.
+ */
+class LabGrid {
+    private static final int AXIS_BITS = 21;
+    private static final int AXIS_OFFSET = 1 << (AXIS_BITS - 1);
+    private static final int AXIS_MASK = (1 << AXIS_BITS) - 1;
+
+    private final double cellSize;
+    private final HashMap<Long, Cell> cells;
+    private int[] colors;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param cellSize side of each cell, in delta E
+     */
+    LabGrid(double cellSize) {
+        this.cellSize = cellSize;
+        cells = new HashMap<>();
+        colors = new int[16];
+        size = 0;
+    }
+
+    /**
+     * Add a color to the grid.
+     *
+     * @param rgb packed RGB value
+     * @return insertion index of the color
+     */
+    int add(int rgb) {
+        if (size == colors.length)
+            colors = Arrays.copyOf(colors, size * 2);
+        colors[size] = rgb;
+
+        long key = key(cell(LabTable.lightness(rgb)), cell(LabTable.a(rgb)), cell(LabTable.b(rgb)));
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        }
+        cell.add(size);
+        return size++;
+    }
+
+    /**
+     * Find the nearest color that is strictly closer than the threshold. The threshold must not exceed the cell
+     * size. Ties are broken by insertion order, like a linear scan would.
+     *
+     * @param rgb       packed RGB value of the query color
+     * @param threshold exclusive upper bound on the CIE76 distance
+     * @return insertion index of the nearest color, -1 if no color is closer than the threshold
+     */
+    int nearestWithin(int rgb, double threshold) {
+        int cl = cell(LabTable.lightness(rgb)), ca = cell(LabTable.a(rgb)), cb = cell(LabTable.b(rgb));
+
+        int nearest = -1;
+        double min = threshold;
+        for (int l = cl - 1; l <= cl + 1; l++) {
+            for (int a = ca - 1; a <= ca + 1; a++) {
+                for (int b = cb - 1; b <= cb + 1; b++) {
+                    Cell cell = cells.get(key(l, a, b));
+                    if (cell == null)
+                        continue;
+                    for (int i = 0; i < cell.size; i++) {
+                        int index = cell.entries[i];
+                        double diff = ColorMath.cie76(rgb, colors[index]);
+                        if (diff < min || (diff == min && nearest >= 0 && index < nearest)) {
+                            min = diff;
+                            nearest = index;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Get the number of colors in the grid.
+     *
+     * @return number of colors
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the cell coordinate of a Lab component.
+     *
+     * @param component L, a or b value
+     * @return cell coordinate along that axis
+     */
+    private int cell(double component) {
+        return (int) Math.floor(component / cellSize);
+    }
+
+    /**
+     * Pack three cell coordinates into a single key.
+     *
+     * @param l cell coordinate along L
+     * @param a cell coordinate along a
+     * @param b cell coordinate along b
+     * @return key of the cell
+     */
+    static long key(int l, int a, int b) {
+        return ((long) ((l + AXIS_OFFSET) & AXIS_MASK) << (2 * AXIS_BITS))
+                | ((long) ((a + AXIS_OFFSET) & AXIS_MASK) << AXIS_BITS)
+                | ((b + AXIS_OFFSET) & AXIS_MASK);
+    }
+
+    /**
+     * Growable list of insertion indices held by one cell.
+     */
+    private static class Cell {
+        private int[] entries = new int[4];
+        private int size;
+
+        /**
+         * Add an insertion index to the cell.
+         *
+         * @param index insertion index
+         */
+        void add(int index) {
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = index;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package models.palette;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache from packed RGB to palette index. Uses open addressing with linear probing over primitive arrays.
+ * A lookup probes at most MAX_PROBES slots; when all of them hold other colors, the slot the color hashes to is
+ * evicted, so the cache never grows beyond its capacity.
+ */
+class NearestColorCache {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int EMPTY = -1; // Keys are 24-bit RGB values, so -1 is never a key.
+    private static final int MAX_PROBES = 8;
+
+    private final int[] keys;
+    private final int[] values;
+    private final int mask, shift;
+    private long hits, misses, evictions;
+
+    /**
+     * Constructor. The capacity is rounded up to the next power of two.
+     *
+     * @param capacity maximum number of colors held by the cache
+     */
+    NearestColorCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(MAX_PROBES, capacity - 1) << 1);
+        keys = new int[size];
+        values = new int[size];
+        mask = size - 1;
+        shift = Integer.numberOfLeadingZeros(mask);
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Get the palette index cached for a color, updating the hit/miss counters.
+     *
+     * @param rgb packed RGB value, the alpha byte is ignored
+     * @return the cached palette index, or -1 if the color is not cached
+     */
+    int get(int rgb) {
+        rgb &= 0xFFFFFF;
+        for (int probe = 0, slot = hash(rgb); probe < MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+            if (keys[slot] == rgb) {
+                hits++;
+                return values[slot];
+            }
+            if (keys[slot] == EMPTY)
+                break;
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Cache the palette index of a color, evicting another color if the probe window is full.
+     *
+     * @param rgb   packed RGB value, the alpha byte is ignored
+     * @param index palette index of the nearest color
+     */
+    void put(int rgb, int index) {
+        rgb &= 0xFFFFFF;
+        int home = hash(rgb);
+        for (int probe = 0, slot = home; probe < MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+            if (keys[slot] == EMPTY || keys[slot] == rgb) {
+                keys[slot] = rgb;
+                values[slot] = index;
+                return;
+            }
+        }
+        evictions++;
+        keys[home] = rgb;
+        values[home] = index;
+    }
+
+    /**
+     * Remove all cached colors. The counters are kept.
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Get the number of lookups that found a cached color.
+     *
+     * @return number of hits
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that did not find a cached color.
+     *
+     * @return number of misses
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of colors evicted to make room for others.
+     *
+     * @return number of evictions
+     */
+    long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Fibonacci hash of a color into a slot.
+     *
+     * @param rgb packed RGB value
+     * @return slot of the color
+     */
+    private int hash(int rgb) {
+        return (rgb * 0x9E3779B9) >>> shift;
+    }
+}
@@ -7,10 +7,15 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Naive palette. Mimics a real life palette by holding various colors (Pixel objects).
+ * Naive palette. Mimics a real life palette by holding various colors (Pixel objects). The colors are also indexed
+ * in a Lab grid so that similar colors are found without scanning the whole palette.
  */
-public class Palette {
+public class Palette implements PaletteLookup {
+    // Differences below this value are mapped to a similar PerceptionScale by ColorMath.valueToScale().
+    static final double SIMILAR_THRESHOLD = 11;
+
     private ArrayList<Pixel> palette;
+    private LabGrid index;
     private Pixel tempColor;
 
     /**
@@ -18,6 +23,7 @@ public class Palette {
      */
     public Palette() {
         palette = new ArrayList<>();
+        index = new LabGrid(SIMILAR_THRESHOLD);
         tempColor = null;
     }
 
@@ -28,6 +34,53 @@ public class Palette {
      */
     public void add(Pixel color) {
         palette.add(color);
+        index.add(color.getRGB());
+    }
+
+    /**
+     * Add a packed color to the palette.
+     *
+     * @param argb packed ARGB value of the color to be added
+     */
+    public void add(int argb) {
+        add(new Pixel(argb));
+    }
+
+    /**
+     * Find the nearest similar color. Unlike exists(), the lookup leaves the palette untouched.
+     *
+     * @param color color to be compared with
+     * @return the nearest similar color, null if there is none
+     */
+    public Pixel findSimilar(Pixel color) {
+        int nearest = findSimilar(color.getRGB());
+        return nearest < 0 ? null : palette.get(nearest);
+    }
+
+    /**
+     * Find the nearest similar color to a packed color, without allocating. Ties go to the first added color.
+     *
+     * @param rgb packed RGB value of the color to be compared with, the alpha byte is ignored
+     * @return index of the nearest similar color for getARGB(), -1 if there is none
+     */
+    @Override
+    public int findSimilar(int rgb) {
+        return index.nearestWithin(rgb, SIMILAR_THRESHOLD);
+    }
+
+    /**
+     * Find the nearest similar color to a packed color, or else add the color.
+     *
+     * @param argb packed ARGB value of the color
+     * @return index of the nearest similar color, or of the added color, for getARGB()
+     */
+    @Override
+    public int findOrAdd(int argb) {
+        int nearest = findSimilar(argb);
+        if (nearest >= 0)
+            return nearest;
+        add(argb);
+        return palette.size() - 1;
     }
 
     /**
@@ -36,9 +89,25 @@ public class Palette {
      *
      * @param color color to be compared with
      * @return true if the color exists, false otherwise.
+     * @deprecated the result is kept in the palette, which cannot be shared between threads; use findSimilar()
      */
+    @Deprecated
     public boolean exists(Pixel color) {
-        tempColor = nearestColor(color, palette);
+        return exists(color.getRGB());
+    }
+
+    /**
+     * Check if a color similar to a packed color exists, without allocating. If such color exists, save it in
+     * tempColor. This method should be used with getColor() if it returns true.
+     *
+     * @param rgb packed RGB value of the color to be compared with, the alpha byte is ignored
+     * @return true if the color exists, false otherwise.
+     * @deprecated the result is kept in the palette, which cannot be shared between threads; use findSimilar()
+     */
+    @Deprecated
+    public boolean exists(int rgb) {
+        int nearest = findSimilar(rgb);
+        tempColor = nearest < 0 ? null : palette.get(nearest);
         return tempColor != null;
     }
 
@@ -47,16 +116,30 @@ public class Palette {
      * exists(Pixel color) method returns true.
      *
      * @return tempColor saved as a byproduct of exists(Pixel color)
+     * @deprecated use the result of findSimilar()
      */
+    @Deprecated
     public Pixel getColor() {
         return tempColor;
     }
 
+    /**
+     * Get a color of the palette by insertion order.
+     *
+     * @param index index of the color, from 0 to getSize() - 1
+     * @return packed ARGB value of the color
+     */
+    @Override
+    public int getARGB(int index) {
+        return palette.get(index).getARGB();
+    }
+
     /**
      * Get size of the palette (number of colors stored).
      *
      * @return size of the palette.
      */
+    @Override
     public int getSize() {
         return palette.size();
     }
@@ -84,7 +167,50 @@ public class Palette {
         return null;
     }
 
+    /**
+     * Obtain the nearest color in a list of colors.
+     *
+     * @param currentColor color benchmark
+     * @param colors list of colors to be compared with the benchmark
+     * @return the nearest color if it exists, null if the nearest color is not similar to the current color
+     */
     public static Pixel nearestColor(Pixel currentColor, List<Pixel> colors) {
-        return nearestColor(currentColor, colors.toArray(new Pixel[colors.size()]));
+        double min = currentColor.colorDifferenceVal(colors.get(0));
+        Pixel nearest = colors.get(0);
+
+        for (int i = 1; i < colors.size(); i++) {
+            double diff = currentColor.colorDifferenceVal(colors.get(i));
+            if (diff < min) {
+                min = diff;
+                nearest = colors.get(i);
+            }
+        }
+
+        if (ColorMath.valueToScale(min).isSimilar())
+            return nearest;
+        return null;
+    }
+
+    /**
+     * Obtain the index of the nearest color among packed colors, without allocating.
+     *
+     * @param rgb    packed RGB value of the color benchmark
+     * @param colors packed RGB values of the colors to be compared with the benchmark
+     * @param count  number of colors to compare, starting from the first
+     * @return index of the nearest color, -1 if the nearest color is not similar to the current color
+     */
+    public static int nearestIndex(int rgb, int[] colors, int count) {
+        double min = ColorMath.colorDifferenceVal(rgb, colors[0]);
+        int nearest = 0;
+
+        for (int i = 1; i < count; i++) {
+            double diff = ColorMath.colorDifferenceVal(rgb, colors[i]);
+            if (diff < min) {
+                min = diff;
+                nearest = i;
+            }
+        }
+
+        return ColorMath.valueToScale(min).isSimilar() ? nearest : -1;
     }
 }
@@ -0,0 +1,38 @@
+package models.palette;
+
+/**
+ * Lookup of the colors of a palette that grows as pictures are filtered, on packed colors. A color is looked up by
+ * the index of its nearest similar color, which then gives the packed color of the palette.
+ */
+public interface PaletteLookup {
+    /**
+     * Find the nearest similar color to a packed color.
+     *
+     * @param rgb packed RGB value of the color to be compared with, the alpha byte is ignored
+     * @return index of the nearest similar color for getARGB(), -1 if there is none
+     */
+    int findSimilar(int rgb);
+
+    /**
+     * Find the nearest similar color to a packed color, or else add the color.
+     *
+     * @param argb packed ARGB value of the color
+     * @return index of the nearest similar color, or of the added color, for getARGB()
+     */
+    int findOrAdd(int argb);
+
+    /**
+     * Get a color of the palette.
+     *
+     * @param index index of the color, as returned by findSimilar() or findOrAdd()
+     * @return packed ARGB value of the color
+     */
+    int getARGB(int index);
+
+    /**
+     * Get the number of colors of the palette.
+     *
+     * @return size of the palette
+     */
+    int getSize();
+}
@@ -0,0 +1,488 @@
+package utils;
+
+import models.Picture;
+import models.palette.ConcurrentPalette;
+import models.palette.Palette;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch processing. Applies a chain of filters to many image files, decoding, filtering and encoding them
+ * concurrently on three bounded worker pools. The number of files in flight is bounded by the sum of the pool sizes,
+ * so memory stays bounded however many files are processed.
+ */
+public class BatchProcessor {
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".gif"};
+
+    /**
+     * Filters that can be chained. Filters that transform the picture in place return the same picture.
+     */
+    public enum Step {
+        CONTRAST, SATURATION, GRID_WEIGHT, GRID_SPACE, GRID_SPACE2, QUANTIZE, QUANTIZE_BAYER, QUANTIZE_BLUE_NOISE,
+        QUANTIZE_FLOYD_STEINBERG, QUANTIZE_ATKINSON, LINEAR, LINEAR2, LINEAR3, LINEAR4, GRID_DIFFERENCE, EDGE;
+
+        /**
+         * Apply the filter.
+         *
+         * @param picture Picture to be transformed, not modified
+         * @return transformed picture
+         */
+        public Picture apply(Picture picture) {
+            FilterPipeline pipeline = new FilterPipeline();
+            addTo(pipeline);
+            return pipeline.apply(picture);
+        }
+
+        /**
+         * Append the filter to a pipeline, with a new palette for every picture.
+         *
+         * @param pipeline pipeline to append to
+         */
+        public void addTo(FilterPipeline pipeline) {
+            addTo(pipeline, null);
+        }
+
+        /**
+         * Append the filter to a pipeline. Contrast and saturation are color table stages, fused with their
+         * neighbors.
+         *
+         * @param pipeline pipeline to append to
+         * @param palette  palette shared by the grid difference filter across pictures, null for a new palette for
+         *                 every picture
+         */
+        public void addTo(FilterPipeline pipeline, ConcurrentPalette palette) {
+            switch (this) {
+                case CONTRAST:
+                    pipeline.map(PictureFilter.getContrastLut());
+                    break;
+                case SATURATION:
+                    pipeline.map(PictureFilter.getSaturationLut());
+                    break;
+                case GRID_WEIGHT:
+                    pipeline.then((picture, result) ->
+                            PictureFilter.gridWeightRows(picture, 2, 0, 0, ForkJoinPool.commonPool(), result));
+                    break;
+                case GRID_SPACE:
+                    pipeline.then(PictureFilter::gridSpaceRows);
+                    break;
+                case GRID_SPACE2:
+                    pipeline.then(PictureFilter::gridSpace2Rows);
+                    break;
+                case QUANTIZE:
+                    pipeline.then((picture, result) -> PictureFilter.colorQuantizationRows(picture, 16, result));
+                    break;
+                case QUANTIZE_BAYER:
+                    OrderedDither bayer = OrderedDither.bayer(OrderedDither.DEFAULT_BAYER_SIZE);
+                    pipeline.then((picture, result) -> PictureFilter.colorQuantizationRows(picture, 16, bayer, result));
+                    break;
+                case QUANTIZE_BLUE_NOISE:
+                    OrderedDither blueNoise = OrderedDither.blueNoise(OrderedDither.DEFAULT_BLUE_NOISE_SIZE);
+                    pipeline.then((picture, result) ->
+                            PictureFilter.colorQuantizationRows(picture, 16, blueNoise, result));
+                    break;
+                case QUANTIZE_FLOYD_STEINBERG:
+                    pipeline.then((picture, result) ->
+                            PictureFilter.colorQuantizationRows(picture, 16, ErrorDiffusion.FLOYD_STEINBERG, result));
+                    break;
+                case QUANTIZE_ATKINSON:
+                    pipeline.then((picture, result) ->
+                            PictureFilter.colorQuantizationRows(picture, 16, ErrorDiffusion.ATKINSON, result));
+                    break;
+                case LINEAR:
+                    pipeline.then(PictureFilter::linearDifferenceRows);
+                    break;
+                case LINEAR2:
+                    pipeline.then(PictureFilter::linearDifference2Rows);
+                    break;
+                case LINEAR3:
+                    pipeline.then(PictureFilter::linearDifference3Rows);
+                    break;
+                case LINEAR4:
+                    pipeline.then(PictureFilter::linearDifference4Rows);
+                    break;
+                case GRID_DIFFERENCE:
+                    pipeline.then((picture, result) -> PictureFilter.gridDifferenceRows(picture, 4,
+                            (palette != null) ? palette : new Palette(), null, result));
+                    break;
+                case EDGE:
+                    pipeline.then(PictureDraw::detectEdgeRows);
+                    break;
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+
+        /**
+         * Parse a filter name, eg. "grid-weight" or "quantize".
+         *
+         * @param name name of the filter, case insensitive, with dashes or underscores
+         * @return the filter
+         */
+        public static Step parse(String name) {
+            return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final FilterPipeline pipeline = new FilterPipeline();
+    private final File outputDir;
+    private final String format;
+    private final int decodeThreads, computeThreads, encodeThreads;
+    private final PrintStream log;
+
+    /**
+     * Constructor.
+     *
+     * @param steps          filters to apply, in order
+     * @param outputDir      directory to write the filtered files to
+     * @param format         ImageIO format name of the output files, eg. "png"
+     * @param decodeThreads  maximum number of files decoded at once
+     * @param computeThreads maximum number of files filtered at once
+     * @param encodeThreads  maximum number of files encoded at once
+     * @param log            stream to print per file timings and the summary to
+     */
+    public BatchProcessor(List<Step> steps, File outputDir, String format, int decodeThreads, int computeThreads,
+                          int encodeThreads, PrintStream log) {
+        this(steps, null, outputDir, format, decodeThreads, computeThreads, encodeThreads, log);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param steps          filters to apply, in order
+     * @param palette        palette shared by the grid difference filter across all files, so that similar colors
+     *                       come out the same in all of them, null for a new palette for every file. Files are
+     *                       filtered concurrently, so the colors the palette settles on can differ from run to run.
+     * @param outputDir      directory to write the filtered files to
+     * @param format         ImageIO format name of the output files, eg. "png"
+     * @param decodeThreads  maximum number of files decoded at once
+     * @param computeThreads maximum number of files filtered at once
+     * @param encodeThreads  maximum number of files encoded at once
+     * @param log            stream to print per file timings and the summary to
+     */
+    public BatchProcessor(List<Step> steps, ConcurrentPalette palette, File outputDir, String format,
+                          int decodeThreads, int computeThreads, int encodeThreads, PrintStream log) {
+        if (decodeThreads < 1 || computeThreads < 1 || encodeThreads < 1)
+            throw new IllegalArgumentException("Every pool needs at least one thread");
+        for (Step step : steps)
+            step.addTo(pipeline, palette);
+        this.outputDir = outputDir;
+        this.format = format;
+        this.decodeThreads = decodeThreads;
+        this.computeThreads = computeThreads;
+        this.encodeThreads = encodeThreads;
+        this.log = log;
+    }
+
+    /**
+     * Process every image file matched by the inputs. A failing file is reported and skipped. A file matched by
+     * several inputs is processed once.
+     *
+     * @param inputs image files, directories to search recursively, or glob patterns such as "assets/**.png"
+     * @return number of files that failed
+     * @throws IOException if an input cannot be listed, or if two files would be written to the same output file,
+     *                     eg. x.png and x.jpg of one directory, before any file is processed
+     */
+    public int process(List<String> inputs) throws IOException {
+        // Files sharing an output would be encoded concurrently, overwriting each other
+        Map<Path, Source> outputs = new LinkedHashMap<>();
+        for (String input : inputs) {
+            for (Source source : resolve(input)) {
+                Path output = source.getOutput(outputDir, format).toPath().toAbsolutePath().normalize();
+                Source other = outputs.putIfAbsent(output, source);
+                if (other != null && !Files.isSameFile(other.file.toPath(), source.file.toPath()))
+                    throw new IOException(other.file + " and " + source.file + " would both be written to " + output);
+            }
+        }
+        List<Source> sources = new ArrayList<>(outputs.values());
+
+        ExecutorService decodePool = Executors.newFixedThreadPool(decodeThreads);
+        ExecutorService computePool = Executors.newFixedThreadPool(computeThreads);
+        ExecutorService encodePool = Executors.newFixedThreadPool(encodeThreads);
+        int permits = decodeThreads + computeThreads + encodeThreads;
+        Semaphore inFlight = new Semaphore(permits);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong pixels = new AtomicLong();
+        long start = System.nanoTime();
+
+        try {
+            for (Source source : sources) {
+                inFlight.acquireUninterruptibly();
+                Job job = new Job(source);
+                CompletableFuture.runAsync(job::decode, decodePool)
+                        .thenRunAsync(job::compute, computePool)
+                        .thenRunAsync(job::encode, encodePool)
+                        .whenComplete((ignored, error) -> {
+                            if (error == null) {
+                                pixels.addAndGet(job.pixels);
+                                log.println(job.report());
+                            } else {
+                                failures.incrementAndGet();
+                                Throwable cause = error;
+                                while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                                        && cause.getCause() != null)
+                                    cause = cause.getCause();
+                                log.println(source.file + "  FAILED: " + cause);
+                            }
+                            inFlight.release();
+                        });
+            }
+            // Every file has finished once all permits are back.
+            inFlight.acquireUninterruptibly(permits);
+        } finally {
+            decodePool.shutdown();
+            computePool.shutdown();
+            encodePool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.println(String.format(Locale.ROOT, "%d files, %d failed, %.1f MP in %.2f s: %.2f files/s, %.2f MP/s",
+                sources.size(), failures.get(), pixels.get() / 1e6, seconds, sources.size() / seconds,
+                pixels.get() / 1e6 / seconds));
+        return failures.get();
+    }
+
+    /**
+     * Find the image files matched by an input.
+     *
+     * @param input image file, directory or glob pattern
+     * @return matched files with the directory their output path is relative to
+     * @throws IOException if the input cannot be listed
+     */
+    private static List<Source> resolve(String input) throws IOException {
+        Path path = Paths.get(input);
+        if (Files.isRegularFile(path))
+            return Collections.singletonList(new Source(path.toFile(), path.getFileName()));
+
+        Path root = path;
+        PathMatcher matcher = file -> true;
+        if (!Files.isDirectory(path)) {
+            // Walk the longest leading part of the pattern that has no glob characters.
+            root = path.isAbsolute() ? path.getRoot() : Paths.get("");
+            for (Path part : path) {
+                if (part.toString().matches(".*[*?\\[{].*"))
+                    break;
+                root = root.resolve(part);
+            }
+            if (!Files.isDirectory(root))
+                throw new IOException("No such file or directory: " + input);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+        }
+
+        Path base = root;
+        PathMatcher filter = matcher;
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(file -> Files.isRegularFile(file) && isImage(file.toString()) && filter.matches(file))
+                    .sorted()
+                    .map(file -> new Source(file.toFile(), base.relativize(file)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Check whether a file name has an image extension.
+     *
+     * @param name file name
+     * @return true if the file looks like an image
+     */
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : IMAGE_EXTENSIONS)
+            if (lower.endsWith(extension))
+                return true;
+        return false;
+    }
+
+    /**
+     * Command line entry point. Usage:
+     * <pre>
+     * --filters saturation,quantize --out DIR [--format png] [--decode N] [--compute N] [--encode N]
+     * [--shared-palette] INPUT...
+     * </pre>
+     * Inputs are image files, directories or glob patterns. With --shared-palette, the grid difference filter uses
+     * one palette for all files. Exits with status 1 if any file failed.
+     *
+     * @param args command line arguments
+     * @throws IOException if an input cannot be listed, or if two files would be written to the same output file
+     */
+    public static void main(String[] args) throws IOException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Step> steps = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        File outputDir = null;
+        String format = "png";
+        int decodeThreads = 2, computeThreads = processors, encodeThreads = 2;
+        ConcurrentPalette palette = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filters":
+                    for (String name : args[++i].split(","))
+                        steps.add(Step.parse(name));
+                    break;
+                case "--out":
+                    outputDir = new File(args[++i]);
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--decode":
+                    decodeThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--compute":
+                    computeThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--encode":
+                    encodeThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--shared-palette":
+                    palette = new ConcurrentPalette();
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+
+        if (steps.isEmpty() || outputDir == null || inputs.isEmpty()) {
+            System.err.println("Usage: --filters F1,F2,... --out DIR [--format png] [--decode N] [--compute N]"
+                    + " [--encode N] [--shared-palette] INPUT...");
+            System.exit(2);
+        }
+
+        BatchProcessor processor = new BatchProcessor(steps, palette, outputDir, format, decodeThreads,
+                computeThreads, encodeThreads, System.out);
+        if (processor.process(inputs) > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Input file and the path of its output relative to the output directory.
+     */
+    private static class Source {
+        private final File file;
+        private final Path relative;
+
+        /**
+         * Constructor.
+         *
+         * @param file     input file
+         * @param relative path of the input relative to the input it was found through
+         */
+        Source(File file, Path relative) {
+            this.file = file;
+            this.relative = relative;
+        }
+
+        /**
+         * Get the output file, replacing the input extension by the output format.
+         *
+         * @param outputDir directory to write to
+         * @param format    output format, also the extension of the output file
+         * @return output file
+         */
+        File getOutput(File outputDir, String format) {
+            String name = relative.toString();
+            int dot = name.lastIndexOf('.');
+            return new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + "." + format);
+        }
+    }
+
+    /**
+     * One file moving through the decode, compute and encode stages. Each stage runs after the previous one has
+     * finished, so the fields need no synchronization beyond what the executors provide.
+     */
+    private class Job {
+        private final Source source;
+        private Picture picture;
+        private long pixels, decodeNanos, computeNanos, encodeNanos;
+
+        /**
+         * Constructor.
+         *
+         * @param source file to process
+         */
+        Job(Source source) {
+            this.source = source;
+        }
+
+        /**
+         * Read the input file.
+         */
+        void decode() {
+            long start = System.nanoTime();
+            try {
+                BufferedImage image = ImageIO.read(source.file);
+                if (image == null)
+                    throw new IOException("Unsupported image format");
+                picture = new Picture(image);
+                pixels = (long) picture.getWidth() * picture.getHeight();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            decodeNanos = System.nanoTime() - start;
+        }
+
+        /**
+         * Apply the filter chain.
+         */
+        void compute() {
+            long start = System.nanoTime();
+            picture = pipeline.apply(picture);
+            computeNanos = System.nanoTime() - start;
+        }
+
+        /**
+         * Write the output file, replacing the input extension by the output format.
+         */
+        void encode() {
+            long start = System.nanoTime();
+            File output = source.getOutput(outputDir, format);
+            try {
+                File parent = output.getParentFile();
+                if (parent != null)
+                    Files.createDirectories(parent.toPath());
+                if (!ImageIO.write(picture.getImage(), format, output))
+                    throw new IOException("No writer for format " + format);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            picture = null;
+            encodeNanos = System.nanoTime() - start;
+        }
+
+        /**
+         * Format the timings of the file.
+         *
+         * @return one line report
+         */
+        String report() {
+            return String.format(Locale.ROOT, "%s  %.2f MP  decode %d ms  compute %d ms  encode %d ms", source.file,
+                    pixels / 1e6, decodeNanos / 1_000_000, computeNanos / 1_000_000, encodeNanos / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Color lookup table, precomputing a per-pixel color transform once so that applying it costs a few table reads.
+ * Separable transforms, which map every channel on its own like contrast, use a 1D table of 256 entries per channel
+ * and are exact. Other transforms, like saturation, use a 3D grid of samples interpolated trilinearly. Tables can be
+ * read from and written to .cube files. The alpha channel is passed through unchanged.
+ */
+public class ColorLut implements FilterPipeline.PixelStage {
+    static final int CHANNEL_LEVELS = 256;
+
+    // 3D grid points hold the channels in quarter levels, in three lanes of a long so that they are interpolated
+    // at once. Interpolating with 8 bit fractions needs 18 bits per lane.
+    private static final int GRID_SCALE_BITS = 2, LANE_BITS = 21;
+    private static final int FRACTION_BITS = 8, FRACTION_ONE = 1 << FRACTION_BITS;
+    private static final long LANE_MASK = 0x3FFL | 0x3FFL << LANE_BITS | 0x3FFL << 2 * LANE_BITS;
+    private static final long LANE_HALF = (1L | 1L << LANE_BITS | 1L << 2 * LANE_BITS) << FRACTION_BITS - 1;
+
+    private final String title;
+    private final int size;
+    private final float[] samples; // {r, g, b} per grid point, red varying fastest, in [0, 1]
+    private final boolean separable;
+
+    // 1D tables: the output channel for every input level, shifted into place.
+    private final int[] red, green, blue;
+
+    // 3D tables: the grid points with r, g, b in lanes, and for every input level the lower grid point along an axis
+    // and the fraction towards the next one.
+    private final long[] grid;
+    private final int[] cell, fraction;
+
+    /**
+     * Constructor. Samples a transform that maps every channel on its own into a 1D table. Gray levels are sampled,
+     * so the red output for red level v is taken from the transform of (v, v, v), and likewise for green and blue.
+     *
+     * @param title     title written to .cube files
+     * @param transform separable color transform on packed RGB values
+     */
+    public ColorLut(String title, FilterPipeline.PixelStage transform) {
+        this(title, CHANNEL_LEVELS, true, sample1D(transform));
+    }
+
+    /**
+     * Constructor. Samples a transform into a 3D grid. The grid points are rounded to the nearest channel level, so
+     * the samples are exact when size - 1 divides 255, eg. 18 or 52.
+     *
+     * @param title     title written to .cube files
+     * @param size      number of grid points along every axis, at least 2
+     * @param transform color transform on packed RGB values
+     */
+    public ColorLut(String title, int size, FilterPipeline.PixelStage transform) {
+        this(title, size, false, sample3D(size, transform));
+    }
+
+    /**
+     * Constructor. Accept the samples of a table as argument.
+     *
+     * @param title     title written to .cube files
+     * @param size      number of entries of a 1D table, or grid points along every axis of a 3D table
+     * @param separable true for a 1D table, false for a 3D table
+     * @param samples   {r, g, b} per entry, red varying fastest for a 3D table, in [0, 1]
+     */
+    private ColorLut(String title, int size, boolean separable, float[] samples) {
+        if (size < 2)
+            throw new IllegalArgumentException("Table size must be at least 2, got " + size);
+        this.title = title;
+        this.size = size;
+        this.separable = separable;
+        this.samples = samples;
+
+        if (separable) {
+            red = new int[CHANNEL_LEVELS];
+            green = new int[CHANNEL_LEVELS];
+            blue = new int[CHANNEL_LEVELS];
+            for (int v = 0; v < CHANNEL_LEVELS; v++) {
+                red[v] = interpolate1D(v, 0) << 16;
+                green[v] = interpolate1D(v, 1) << 8;
+                blue[v] = interpolate1D(v, 2);
+            }
+            grid = null;
+            cell = fraction = null;
+        } else {
+            red = green = blue = null;
+            grid = new long[size * size * size];
+            for (int i = 0; i < grid.length; i++) {
+                grid[i] = (long) toGrid(samples[3 * i]) << 2 * LANE_BITS
+                        | (long) toGrid(samples[3 * i + 1]) << LANE_BITS | toGrid(samples[3 * i + 2]);
+            }
+            cell = new int[CHANNEL_LEVELS];
+            fraction = new int[CHANNEL_LEVELS];
+            for (int v = 0; v < CHANNEL_LEVELS; v++) {
+                int position = Math.round(v * (size - 1) * FRACTION_ONE / 255f);
+                cell[v] = Math.min(position >> FRACTION_BITS, size - 2);
+                fraction[v] = position - (cell[v] << FRACTION_BITS);
+            }
+        }
+    }
+
+    /**
+     * Check whether this table maps every channel on its own.
+     *
+     * @return true for a 1D table
+     */
+    public boolean isSeparable() {
+        return separable;
+    }
+
+    /**
+     * Get the number of entries of a 1D table, or grid points along every axis of a 3D table.
+     *
+     * @return size of the table
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the title of the table.
+     *
+     * @return title, null if there is none
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Map a color through the table.
+     *
+     * @param argb packed ARGB value
+     * @return packed ARGB value of the mapped color, with the same alpha
+     */
+    @Override
+    public int apply(int argb) {
+        if (separable)
+            return (argb & 0xFF000000) | red[(argb >> 16) & 0xFF] | green[(argb >> 8) & 0xFF] | blue[argb & 0xFF];
+
+        // Lower corner of the grid cell holding the color, and the fractions towards the upper corner
+        int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF;
+        int fr = fraction[r], fg = fraction[g], fb = fraction[b];
+        int dg = size, db = size * size;
+        int i = cell[r] + size * (cell[g] + size * cell[b]);
+
+        // Interpolate along red, then green, then blue
+        long c00 = lerp(grid[i], grid[i + 1], fr), c10 = lerp(grid[i + dg], grid[i + dg + 1], fr);
+        long c01 = lerp(grid[i + db], grid[i + db + 1], fr), c11 = lerp(grid[i + db + dg], grid[i + db + dg + 1], fr);
+        long value = lerp(lerp(c00, c10, fg), lerp(c01, c11, fg), fb);
+
+        // Drop the quarter levels, rounding
+        int round = 1 << GRID_SCALE_BITS - 1;
+        return (argb & 0xFF000000) | (int) ((value >> 2 * LANE_BITS) + round >> GRID_SCALE_BITS) << 16
+                | (int) ((value >> LANE_BITS & 0x3FF) + round >> GRID_SCALE_BITS) << 8
+                | (int) ((value & 0x3FF) + round >> GRID_SCALE_BITS);
+    }
+
+    /**
+     * Interpolate between two grid values, all lanes at once.
+     *
+     * @param low      lanes at the lower grid point
+     * @param high     lanes at the upper grid point
+     * @param fraction fraction towards the upper grid point, in 1 / FRACTION_ONE
+     * @return interpolated lanes
+     */
+    private static long lerp(long low, long high, int fraction) {
+        return (low * (FRACTION_ONE - fraction) + high * fraction + LANE_HALF) >>> FRACTION_BITS & LANE_MASK;
+    }
+
+    /**
+     * Map every pixel of a raster through the table, in place.
+     *
+     * @param raster packed ARGB raster
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @param stride distance between the start of two consecutive rows in the raster
+     */
+    public void apply(int[] raster, int width, int height, int stride) {
+        for (int i = 0; i < height; i++) {
+            for (int j = i * stride; j < i * stride + width; j++)
+                raster[j] = apply(raster[j]);
+        }
+    }
+
+    /**
+     * Read a table from a .cube file. Both LUT_1D_SIZE and LUT_3D_SIZE tables are supported; a DOMAIN_MIN or
+     * DOMAIN_MAX other than 0 and 1 is not.
+     *
+     * @param file .cube file to read
+     * @return the table
+     * @throws IOException if the file cannot be read or is not a valid .cube file
+     */
+    public static ColorLut read(File file) throws IOException {
+        String title = null;
+        int size = 0;
+        boolean separable = false;
+        float[] samples = null;
+        int count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] tokens = line.split("\\s+");
+                try {
+                    switch (tokens[0]) {
+                        case "TITLE":
+                            int start = line.indexOf('"'), end = line.lastIndexOf('"');
+                            title = (start >= 0 && end > start) ? line.substring(start + 1, end)
+                                    : line.substring(tokens[0].length()).trim();
+                            break;
+                        case "LUT_1D_SIZE":
+                        case "LUT_3D_SIZE":
+                            if (samples != null)
+                                throw new IOException("More than one table size");
+                            separable = tokens[0].equals("LUT_1D_SIZE");
+                            size = Integer.parseInt(tokens[1]);
+                            if (size < 2 || size > (separable ? 65536 : 256))
+                                throw new IOException("Unsupported table size " + size);
+                            samples = new float[3 * (separable ? size : size * size * size)];
+                            break;
+                        case "DOMAIN_MIN":
+                        case "DOMAIN_MAX":
+                            float expected = tokens[0].equals("DOMAIN_MIN") ? 0 : 1;
+                            for (int c = 1; c <= 3; c++) {
+                                if (Float.parseFloat(tokens[c]) != expected)
+                                    throw new IOException("Unsupported " + tokens[0]);
+                            }
+                            break;
+                        default:
+                            if (samples == null)
+                                throw new IOException("Sample before the table size");
+                            if (count == samples.length)
+                                throw new IOException("Too many samples");
+                            for (int c = 0; c < 3; c++)
+                                samples[count++] = Float.parseFloat(tokens[c]);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(file + ":" + lineNumber + ": cannot parse \"" + line + "\"", e);
+                } catch (IOException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        if (samples == null || count != samples.length)
+            throw new IOException(file + ": expected " + (samples == null ? "a table size" : samples.length / 3
+                    + " samples, got " + count / 3));
+        return new ColorLut(title, size, separable, samples);
+    }
+
+    /**
+     * Write the table to a .cube file.
+     *
+     * @param file .cube file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (title != null)
+                writer.write("TITLE \"" + title + "\"\n");
+            writer.write((separable ? "LUT_1D_SIZE " : "LUT_3D_SIZE ") + size + "\n");
+            for (int i = 0; i < samples.length; i += 3)
+                writer.write(String.format(Locale.ROOT, "%.6f %.6f %.6f%n", samples[i], samples[i + 1],
+                        samples[i + 2]));
+        }
+    }
+
+    /**
+     * Interpolate a channel of a 1D table at an input level.
+     *
+     * @param level   input level, from 0 to 255
+     * @param channel 0 for red, 1 for green, 2 for blue
+     * @return output level, from 0 to 255
+     */
+    private int interpolate1D(int level, int channel) {
+        float position = level * (size - 1) / 255f;
+        int lower = Math.min((int) position, size - 2);
+        float fraction = position - lower;
+        float low = samples[3 * lower + channel], high = samples[3 * (lower + 1) + channel];
+        return toLevel(low + (high - low) * fraction);
+    }
+
+    /**
+     * Sample a separable transform at every gray level.
+     *
+     * @param transform color transform on packed RGB values
+     * @return {r, g, b} per level, in [0, 1]
+     */
+    private static float[] sample1D(FilterPipeline.PixelStage transform) {
+        float[] samples = new float[3 * CHANNEL_LEVELS];
+        for (int v = 0; v < CHANNEL_LEVELS; v++)
+            store(transform.apply((v << 16) | (v << 8) | v), samples, 3 * v);
+        return samples;
+    }
+
+    /**
+     * Sample a transform at every point of a 3D grid.
+     *
+     * @param size      number of grid points along every axis
+     * @param transform color transform on packed RGB values
+     * @return {r, g, b} per grid point, red varying fastest, in [0, 1]
+     */
+    private static float[] sample3D(int size, FilterPipeline.PixelStage transform) {
+        if (size < 2 || size > CHANNEL_LEVELS)
+            throw new IllegalArgumentException("Grid size must be from 2 to 256, got " + size);
+        int[] levels = new int[size];
+        for (int i = 0; i < size; i++)
+            levels[i] = Math.round(i * 255f / (size - 1));
+
+        float[] samples = new float[3 * size * size * size];
+        int index = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++, index += 3)
+                    store(transform.apply((levels[r] << 16) | (levels[g] << 8) | levels[b]), samples, index);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Store the channels of a color as samples in [0, 1].
+     *
+     * @param rgb     packed RGB value
+     * @param samples samples to write to
+     * @param index   index of the red sample
+     */
+    private static void store(int rgb, float[] samples, int index) {
+        samples[index] = ((rgb >> 16) & 0xFF) / 255f;
+        samples[index + 1] = ((rgb >> 8) & 0xFF) / 255f;
+        samples[index + 2] = (rgb & 0xFF) / 255f;
+    }
+
+    /**
+     * Convert a sample in [0, 1] to the nearest grid value in quarter levels, clamping samples outside the range.
+     *
+     * @param sample sample value
+     * @return grid value from 0 to 1020
+     */
+    private static int toGrid(float sample) {
+        int value = (int) (sample * (255 << GRID_SCALE_BITS) + 0.5f);
+        return value < 0 ? 0 : value > 255 << GRID_SCALE_BITS ? 255 << GRID_SCALE_BITS : value;
+    }
+
+    /**
+     * Convert a sample in [0, 1] to the nearest channel level, clamping samples outside the range.
+     *
+     * @param sample sample value
+     * @return level from 0 to 255
+     */
+    private static int toLevel(float sample) {
+        int level = (int) (sample * 255 + 0.5f);
+        return level < 0 ? 0 : level > 255 ? 255 : level;
+    }
+}
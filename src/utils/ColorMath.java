@@ -189,6 +189,50 @@ public class ColorMath {
         }
     }
 
+    /**
+     * Compute color differences in terms of perception scale. Lab values are read from the shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @return difference translated to scale
+     */
+    public static PerceptionScale colorDifferenceScale(int rgb1, int rgb2) {
+        return valueToScale(cie76(rgb1, rgb2));
+    }
+
+    /**
+     * Compute color differences in terms of double. Lab values are read from the shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @return difference between first and second color
+     */
+    public static double colorDifferenceVal(int rgb1, int rgb2) {
+        return cie76(rgb1, rgb2);
+    }
+
+    /**
+     * Compute color differences in terms of double, where the formula used is specified by mode. Lab values are
+     * read from the shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @param mode the color distance formula to use
+     * @return difference between first and second color
+     */
+    public static double colorDifferenceVal(int rgb1, int rgb2, Mode mode) {
+        switch (mode) {
+            case CIE76:
+                return cie76(rgb1, rgb2);
+            case CIE94:
+                return cie94(rgb1, rgb2);
+            case CIEDE2000:
+                return ciede2000(rgb1, rgb2);
+            default:
+                return cie76(rgb1, rgb2);
+        }
+    }
+
     /**
      * CIE76 Color difference formula implementation.
      *
@@ -198,10 +242,37 @@ public class ColorMath {
      */
     public static double cie76(double[] rgb1, double[] rgb2) {
         double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        return cie76(lab1[0], lab1[1], lab1[2], lab2[0], lab2[1], lab2[2]);
+    }
 
-        double distL = Math.pow(lab2[0] - lab1[0], 2),
-                distA = Math.pow(lab2[1] - lab1[1], 2),
-                distB = Math.pow(lab2[2] - lab1[2], 2);
+    /**
+     * CIE76 Color difference formula implementation. Lab values are read from the shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @return difference between rgb1 and rgb2, delta Eab
+     */
+    public static double cie76(int rgb1, int rgb2) {
+        return cie76(LabTable.lightness(rgb1), LabTable.a(rgb1), LabTable.b(rgb1),
+                LabTable.lightness(rgb2), LabTable.a(rgb2), LabTable.b(rgb2));
+    }
+
+    /**
+     * CIE76 Color difference formula on Lab values. Does not allocate, so it can be used in per-pixel loops on
+     * preconverted Lab values.
+     *
+     * @param l1 L value of first color
+     * @param a1 a value of first color
+     * @param b1 b value of first color
+     * @param l2 L value of second color
+     * @param a2 a value of second color
+     * @param b2 b value of second color
+     * @return difference between the two Lab colors, delta Eab
+     */
+    public static double cie76(double l1, double a1, double b1, double l2, double a2, double b2) {
+        double distL = Math.pow(l2 - l1, 2),
+                distA = Math.pow(a2 - a1, 2),
+                distB = Math.pow(b2 - b1, 2);
 
         return Math.sqrt(distL + distA + distB);
     }
@@ -216,11 +287,33 @@ public class ColorMath {
      */
     public static double cie94(double[] rgb1, double[] rgb2) {
         double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        return cie94(lab1[0], lab1[1], lab1[2], lab2[0], lab2[1], lab2[2]);
+    }
 
-        double l1 = lab1[0], l2 = lab2[0],
-                a1 = lab1[1], a2 = lab2[1],
-                b1 = lab1[2], b2 = lab2[2];
+    /**
+     * CIE94 Color difference formula implementation. Lab values are read from the shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @return difference between rgb1 and rgb2, delta E94
+     */
+    public static double cie94(int rgb1, int rgb2) {
+        return cie94(LabTable.lightness(rgb1), LabTable.a(rgb1), LabTable.b(rgb1),
+                LabTable.lightness(rgb2), LabTable.a(rgb2), LabTable.b(rgb2));
+    }
 
+    /**
+     * CIE94 Color difference formula on Lab values. Does not allocate.
+     *
+     * @param l1 L value of first color
+     * @param a1 a value of first color
+     * @param b1 b value of first color
+     * @param l2 L value of second color
+     * @param a2 a value of second color
+     * @param b2 b value of second color
+     * @return difference between the two Lab colors, delta E94
+     */
+    public static double cie94(double l1, double a1, double b1, double l2, double a2, double b2) {
         double deltaL = l1 - l2,
                 deltaA = a1 - a2,
                 deltaB = b1 - b2;
@@ -247,25 +340,79 @@ public class ColorMath {
      */
     public static double ciede2000(double[] rgb1, double[] rgb2) {
         double[] lab1 = rgbToLab(rgb1), lab2 = rgbToLab(rgb2);
+        return ciede2000(lab1[0], lab1[1], lab1[2], lab2[0], lab2[1], lab2[2]);
+    }
 
-        double[][] chPrime = cPrime_hPrime(lab1, lab2);
-        double[] cPrime = chPrime[0],
-                hPrime = chPrime[1];
+    /**
+     * CIEDE2000 Color difference formula implementation. Assume kl = kc = kh = 1. Lab values are read from the
+     * shared lookup table.
+     *
+     * @param rgb1 first color in packed RGB
+     * @param rgb2 second color in packed RGB
+     * @return difference between rgb1 and rgb2, delta E
+     */
+    public static double ciede2000(int rgb1, int rgb2) {
+        return ciede2000(LabTable.lightness(rgb1), LabTable.a(rgb1), LabTable.b(rgb1),
+                LabTable.lightness(rgb2), LabTable.a(rgb2), LabTable.b(rgb2));
+    }
+
+    /**
+     * CIEDE2000 Color difference formula on Lab values. Does not allocate.
+     *
+     * @param l1 L value of first color
+     * @param a1 a value of first color
+     * @param b1 b value of first color
+     * @param l2 L value of second color
+     * @param a2 a value of second color
+     * @param b2 b value of second color
+     * @return difference between the two Lab colors, delta E
+     */
+    public static double ciede2000(double l1, double a1, double b1, double l2, double a2, double b2) {
+        // C' and h'
+        double c1 = Math.sqrt(Math.pow(a1, 2) + Math.pow(b1, 2)),
+                c2 = Math.sqrt(Math.pow(a2, 2) + Math.pow(b2, 2));
+
+        double cMeanPow7 = Math.pow((c1 + c2) / 2, 7),
+                twoFivePow7 = Math.pow(25, 7);
 
-        double[] lch = deltaLCH(new double[]{lab1[0], lab2[0]}, cPrime, hPrime);
+        double g = 0.5 * (1 - Math.sqrt(cMeanPow7 / (cMeanPow7 + twoFivePow7)));
 
-        double lMean = (lab1[0] + lab2[0]) / 2,
-                cMean = (cPrime[1] + cPrime[0]) / 2;
+        double aPrime1 = (1 + g) * a1,
+                aPrime2 = (1 + g) * a2;
+
+        double cPrime1 = Math.sqrt(Math.pow(aPrime1, 2) + Math.pow(b1, 2)),
+                cPrime2 = Math.sqrt(Math.pow(aPrime2, 2) + Math.pow(b2, 2));
+
+        double hPrime1 = (b1 == aPrime1) ? 0 : Math.toDegrees(Math.atan2(b1, aPrime1)),
+                hPrime2 = (b2 == aPrime2) ? 0 : Math.toDegrees(Math.atan2(b2, aPrime2));
+
+        // Delta L, delta C and delta H
+        double deltaL = l2 - l1,
+                deltaC = cPrime2 - cPrime1;
+
+        double deltaH;
+        if (cPrime1 * cPrime2 == 0)
+            deltaH = 0;
+        else if (Math.abs(hPrime2 - hPrime1) <= 180)
+            deltaH = hPrime2 - hPrime1;
+        else if (hPrime2 - hPrime1 > 180)
+            deltaH = hPrime2 - hPrime1 - 360;
+        else
+            deltaH = hPrime2 - hPrime1 + 360;
+        deltaH = 2 * (Math.sqrt(cPrime1 * cPrime2)) * Math.sin(deltaH / 2);
+
+        double lMean = (l1 + l2) / 2,
+                cMean = (cPrime2 + cPrime1) / 2;
 
         double hMean;
-        if (cPrime[0] * cPrime[1] == 0)
-            hMean = hPrime[0] + hPrime[1];
-        else if (Math.abs(hPrime[0] - hPrime[1]) <= 180)
-            hMean = (hPrime[0] + hPrime[1]) / 2;
-        else if (Math.abs(hPrime[0] - hPrime[1]) > 180)
-            hMean = (hPrime[0] + hPrime[1] + 360) / 2;
+        if (cPrime1 * cPrime2 == 0)
+            hMean = hPrime1 + hPrime2;
+        else if (Math.abs(hPrime1 - hPrime2) <= 180)
+            hMean = (hPrime1 + hPrime2) / 2;
+        else if (Math.abs(hPrime1 - hPrime2) > 180)
+            hMean = (hPrime1 + hPrime2 + 360) / 2;
         else
-            hMean = (hPrime[0] + hPrime[1] - 360) / 2;
+            hMean = (hPrime1 + hPrime2 - 360) / 2;
 
         double t = 1 - (0.17 * Math.cos(hMean - 30)) + (0.24 * Math.cos(2 * hMean) +
                 (0.32 * Math.cos(3 * hMean + 6) - (0.20 * Math.cos(4 * hMean - 63)))),
@@ -275,8 +422,8 @@ public class ColorMath {
                 sc = 1 + (0.045 * cMean),
                 sh = 1 + (0.015 * cMean * t),
                 rr = -1 * Math.sin(2 * deltaTheta) * rc;
-        return Math.sqrt(Math.pow(lch[0] / sl, 2) + Math.pow(lch[1] / sc, 2) + Math.pow(lch[2] / sh, 2) + (rr *
-                (lch[1] / sc) * (lch[2] / sh)));
+        return Math.sqrt(Math.pow(deltaL / sl, 2) + Math.pow(deltaC / sc, 2) + Math.pow(deltaH / sh, 2) + (rr *
+                (deltaC / sc) * (deltaH / sh)));
     }
 
     /**
@@ -343,6 +490,16 @@ public class ColorMath {
         return rgbToLab(rgb[0], rgb[1], rgb[2]);
     }
 
+    /**
+     * Convert packed RGB to Lab. Reads the shared lookup table instead of recomputing the conversion.
+     *
+     * @param rgb packed RGB value, the alpha byte is ignored
+     * @return array of {l, a, b} values
+     */
+    public static double[] rgbToLab(int rgb) {
+        return new double[]{LabTable.lightness(rgb), LabTable.a(rgb), LabTable.b(rgb)};
+    }
+
     /**
      * Convert RGB to XYZ. Wraps around rgbToXyz(r, g, b).
      *
@@ -363,6 +520,58 @@ public class ColorMath {
         return xyzToLab(xyz[0], xyz[1], xyz[2]);
     }
 
+    /**
+     * Convert Lab to XYZ color space.
+     * Reference: http://www.easyrgb.com/index.php?X=MATH&H=08#text8
+     *
+     * @param l l value
+     * @param a a value
+     * @param b b value
+     * @return array of {x, y, z} values
+     */
+    public static double[] labToXyz(double l, double a, double b) {
+        double varY = (l + 16) / 116,
+                varX = a / 500 + varY,
+                varZ = varY - b / 200;
+
+        return new double[]{inverseTransformXyz(varX, REF_X), inverseTransformXyz(varY, REF_Y),
+                inverseTransformXyz(varZ, REF_Z)};
+    }
+
+    /**
+     * Convert XYZ to RGB color space. Components are rounded and truncated to the RGB range.
+     * Reference: http://www.easyrgb.com/index.php?X=MATH&H=01#text1
+     *
+     * @param x x value
+     * @param y y value
+     * @param z z value
+     * @return array of {r, g, b} values
+     */
+    public static double[] xyzToRgb(double x, double y, double z) {
+        double varX = x / 100,
+                varY = y / 100,
+                varZ = z / 100;
+
+        double r = varX * 3.2406 + varY * -1.5372 + varZ * -0.4986,
+                g = varX * -0.9689 + varY * 1.8758 + varZ * 0.0415,
+                b = varX * 0.0557 + varY * -0.2040 + varZ * 1.0570;
+
+        return new double[]{inverseTransformRgb(r), inverseTransformRgb(g), inverseTransformRgb(b)};
+    }
+
+    /**
+     * Convert Lab to RGB. Components are rounded and truncated to the RGB range.
+     *
+     * @param l l value
+     * @param a a value
+     * @param b b value
+     * @return array of {r, g, b} values
+     */
+    public static double[] labToRgb(double l, double a, double b) {
+        double[] xyz = labToXyz(l, a, b);
+        return xyzToRgb(xyz[0], xyz[1], xyz[2]);
+    }
+
     /**
      * Helper method to transform RGB to XYZ.
      *
@@ -396,60 +605,33 @@ public class ColorMath {
     }
 
     /**
-     * Helper method to compute delta L, delta C, and delta H for CIEDE2000.
+     * Helper method to transform XYZ back to RGB.
      *
-     * @param lArr   array {L1, L2}
-     * @param cPrime array {C'1, C'2}
-     * @param hPrime array {h'1, h'2}
-     * @return {deltaL, deltaC, deltaH}
+     * @param color linear rgb color value, from 0 to 1
+     * @return rounded and truncated rgb color value
      */
-    private static double[] deltaLCH(double[] lArr, double[] cPrime, double[] hPrime) {
-        double deltaL = lArr[1] - lArr[0],
-                deltaC = cPrime[1] - cPrime[0];
-
-        double deltaH;
-        if (cPrime[0] * cPrime[1] == 0)
-            deltaH = 0;
-        else if (Math.abs(hPrime[1] - hPrime[0]) <= 180)
-            deltaH = hPrime[1] - hPrime[0];
-        else if (hPrime[1] - hPrime[0] > 180)
-            deltaH = hPrime[1] - hPrime[0] - 360;
+    private static double inverseTransformRgb(double color) {
+        if (color > 0.0031308)
+            color = 1.055 * Math.pow(color, 1 / 2.4) - 0.055;
         else
-            deltaH = hPrime[1] - hPrime[0] + 360;
-        deltaH = 2 * (Math.sqrt(cPrime[0] * cPrime[1])) * Math.sin(deltaH / 2);
-
-        return new double[]{deltaL, deltaC, deltaH};
+            color *= 12.92;
+        return truncate(Math.round(color * 255), ColorSpace.RGB);
     }
 
     /**
-     * Helper method to compute cPrime and hPrime for CIEDE2000.
+     * Helper method to transform Lab back to XYZ.
      *
-     * @param lab1 array {l1, a1, b1}
-     * @param lab2 array {l2, a2, b2}
-     * @return array { {cPrime1, cPrime2}, {hPrime1, hPrime2} }
+     * @param color transformed xyz color value
+     * @param ref   reference white
+     * @return xyz color value
      */
-    private static double[][] cPrime_hPrime(double[] lab1, double[] lab2) {
-        double a1 = lab1[1], a2 = lab2[1],
-                b1 = lab1[2], b2 = lab2[2];
-
-        double c1 = Math.sqrt(Math.pow(a1, 2) + Math.pow(b1, 2)),
-                c2 = Math.sqrt(Math.pow(a2, 2) + Math.pow(b2, 2));
-
-        double cMean = (c1 + c2) / 2,
-                cMeanPow7 = Math.pow(cMean, 7),
-                twoFivePow7 = Math.pow(25, 7);
-
-        double g = 0.5 * (1 - Math.sqrt(cMeanPow7 / (cMeanPow7 + twoFivePow7)));
-
-        double aPrime1 = (1 + g) * a1,
-                aPrime2 = (1 + g) * a2;
-
-        double cPrime1 = Math.sqrt(Math.pow(aPrime1, 2) + Math.pow(b1, 2)),
-                cPrime2 = Math.sqrt(Math.pow(aPrime2, 2) + Math.pow(b2, 2));
-
-        double hPrime1 = (b1 == aPrime1) ? 0 : Math.toDegrees(Math.atan2(b1, aPrime1)),
-                hPrime2 = (b2 == aPrime2) ? 0 : Math.toDegrees(Math.atan2(b2, aPrime2));
-
-        return new double[][]{{cPrime1, cPrime2}, {hPrime1, hPrime2}};
+    private static double inverseTransformXyz(double color, double ref) {
+        double cube = Math.pow(color, 3);
+        if (cube > 0.008856) {
+            color = cube;
+        } else {
+            color = (color - 16.0 / 116.0) / 7.787;
+        }
+        return color * ref;
     }
 }
@@ -0,0 +1,219 @@
+package utils;
+
+import models.Picture;
+import models.palette.InverseColormap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Error diffusion dithering onto a palette. Every pixel is mapped to its nearest palette color through an inverse
+ * colormap, and the difference is spread over the pixels after it.
+ * <p>
+ * Rows are dithered in parallel as a diagonal wavefront: a row only gets past a pixel once the rows above it have
+ * diffused all their error into it, so it runs a few pixels behind the row above. Errors are accumulated as integer
+ * numerators in one primitive array per row, kept in a ring as long as the rows in flight, so the result does not
+ * depend on the number of workers.
+ */
+public enum ErrorDiffusion {
+    /**
+     * 7/16 of the error to the right, 3/16, 5/16 and 1/16 to the row below.
+     */
+    FLOYD_STEINBERG(16, new int[][]{{1, 0, 7}, {-1, 1, 3}, {0, 1, 5}, {1, 1, 1}}),
+    /**
+     * 1/8 of the error to each of six neighbors, dropping a quarter of it, which keeps flat areas clean.
+     */
+    ATKINSON(8, new int[][]{{1, 0, 1}, {2, 0, 1}, {-1, 1, 1}, {0, 1, 1}, {1, 1, 1}, {0, 2, 1}});
+
+    // Columns of margin on both sides of the error rows, so that no neighbor is out of bounds.
+    private static final int MARGIN = 2;
+
+    // Pixels dithered between two publications of the progress of a row, and spins before yielding while waiting.
+    private static final int CHUNK = 64;
+    private static final int SPINS = 1 << 10;
+
+    private final int shift, depth;
+    private final int[] dx, dy, weights;
+
+    /**
+     * Constructor.
+     *
+     * @param divisor denominator of the weights, a power of two
+     * @param kernel  {column offset, row offset, weight} of every neighbor receiving error
+     */
+    ErrorDiffusion(int divisor, int[][] kernel) {
+        this.shift = Integer.numberOfTrailingZeros(divisor);
+        dx = new int[kernel.length];
+        dy = new int[kernel.length];
+        weights = new int[kernel.length];
+        int depth = 0;
+        for (int k = 0; k < kernel.length; k++) {
+            dx[k] = kernel[k][0];
+            dy[k] = kernel[k][1];
+            weights[k] = kernel[k][2];
+            depth = Math.max(depth, dy[k]);
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * Dither a whole picture onto a palette.
+     *
+     * @param picture  Picture to be transformed, not modified
+     * @param colormap inverse colormap of the palette
+     * @param pool     pool to run the wavefront on, one row per worker at a time
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    public void apply(Picture picture, InverseColormap colormap, ForkJoinPool pool, int[] result) {
+        int height = picture.getHeight();
+        int workers = Math.max(1, Math.min(pool.getParallelism(), height));
+        Wavefront wavefront = new Wavefront(picture, colormap, workers + depth + 1, result);
+
+        if (workers == 1) {
+            wavefront.run();
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < workers; i++)
+            tasks.add(ForkJoinTask.adapt(wavefront::run));
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * State shared by the workers dithering one picture.
+     */
+    private class Wavefront {
+        private final Picture picture;
+        private final InverseColormap colormap;
+        private final int[] result;
+        private final int width, height;
+
+        // Error numerators of the rows in flight, {red, green, blue} per column, row i in errors[i % errors.length].
+        private final int[][] errors;
+        // Number of pixels dithered in every row, published every CHUNK pixels.
+        private final AtomicIntegerArray progress;
+        private final AtomicInteger nextRow = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param picture  Picture to be transformed
+         * @param colormap inverse colormap of the palette
+         * @param ring     number of error rows
+         * @param result   packed ARGB raster to write to
+         */
+        Wavefront(Picture picture, InverseColormap colormap, int ring, int[] result) {
+            this.picture = picture;
+            this.colormap = colormap;
+            this.result = result;
+            this.width = picture.getWidth();
+            this.height = picture.getHeight();
+            this.errors = new int[ring][3 * (width + 2 * MARGIN)];
+            this.progress = new AtomicIntegerArray(height);
+        }
+
+        /**
+         * Dither rows, in order, until none is left.
+         */
+        void run() {
+            int[] ahead = new int[3 * (width + 2 * MARGIN)];
+            for (int i = nextRow.getAndIncrement(); i < height; i = nextRow.getAndIncrement())
+                ditherRow(i, ahead);
+        }
+
+        /**
+         * Dither a row.
+         *
+         * @param i     index of the row
+         * @param ahead scratch array for the error diffused along the row
+         */
+        private void ditherRow(int i, int[] ahead) {
+            int ring = errors.length;
+            int[] raster = picture.getRaster();
+            int stride = picture.getStride();
+
+            // This row is the first to diffuse error into the row furthest below it, whose error row was last used by
+            // row i + depth - ring
+            await(i + depth - ring, width);
+            Arrays.fill(errors[(i + depth) % ring], 0);
+            Arrays.fill(ahead, 0);
+            int[] current = errors[i % ring];
+            int[][] targets = new int[weights.length][];
+            int[] offsets = new int[weights.length];
+            for (int k = 0; k < weights.length; k++) {
+                targets[k] = (dy[k] == 0) ? ahead : errors[(i + dy[k]) % ring];
+                offsets[k] = 3 * dx[k];
+            }
+
+            for (int start = 0; start < width; start += CHUNK) {
+                int end = Math.min(width, start + CHUNK);
+                await(i - 1, Math.min(width, end + MARGIN));
+
+                for (int j = start; j < end; j++) {
+                    int rgb = raster[i * stride + j];
+                    int column = 3 * (j + MARGIN);
+                    int red = clamp((rgb >> 16 & 0xFF) + round(current[column] + ahead[column]));
+                    int green = clamp((rgb >> 8 & 0xFF) + round(current[column + 1] + ahead[column + 1]));
+                    int blue = clamp((rgb & 0xFF) + round(current[column + 2] + ahead[column + 2]));
+
+                    int nearest = colormap.nearestColor(red << 16 | green << 8 | blue);
+                    result[i * width + j] = nearest;
+
+                    int redError = red - (nearest >> 16 & 0xFF);
+                    int greenError = green - (nearest >> 8 & 0xFF);
+                    int blueError = blue - (nearest & 0xFF);
+                    for (int k = 0; k < weights.length; k++) {
+                        int[] target = targets[k];
+                        int index = column + offsets[k];
+                        target[index] += redError * weights[k];
+                        target[index + 1] += greenError * weights[k];
+                        target[index + 2] += blueError * weights[k];
+                    }
+                }
+                progress.set(i, end);
+            }
+        }
+
+        /**
+         * Wait until a row has dithered enough pixels.
+         *
+         * @param row    index of the row, nothing to wait for if negative
+         * @param pixels number of pixels
+         */
+        private void await(int row, int pixels) {
+            if (row < 0)
+                return;
+            for (int spins = 0; progress.get(row) < pixels; spins++) {
+                if (spins < SPINS)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Divide an error numerator by the divisor, rounding to the nearest integer.
+     *
+     * @param numerator error numerator
+     * @return error in channel levels
+     */
+    private int round(int numerator) {
+        return (numerator + (1 << shift - 1)) >> shift;
+    }
+
+    /**
+     * Clamp a channel value.
+     *
+     * @param value channel value
+     * @return value clamped from 0 to 255
+     */
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
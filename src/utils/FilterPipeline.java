@@ -0,0 +1,174 @@
+package utils;
+
+import models.Picture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chain of filters applied to a picture in as few passes over the raster as possible. Consecutive pixel stages, which
+ * map every color on its own, are fused into a single pass. Neighborhood stages, which read other pixels, write a
+ * new raster, and the pixel stages following them are applied in place on that raster. A pipeline holds at most two
+ * rasters at once, however long it is, and never goes through BufferedImage.
+ * <p>
+ * A pipeline can be applied to several pictures, from several threads at once if its stages allow it.
+ */
+public class FilterPipeline {
+    /**
+     * Stage that maps every color on its own.
+     */
+    @FunctionalInterface
+    public interface PixelStage {
+        /**
+         * Map a color.
+         *
+         * @param argb packed ARGB value
+         * @return packed ARGB value of the new color
+         */
+        int apply(int argb);
+    }
+
+    /**
+     * Stage whose output pixels depend on other input pixels.
+     */
+    @FunctionalInterface
+    public interface NeighborhoodStage {
+        /**
+         * Filter a whole picture.
+         *
+         * @param picture Picture to be transformed, not modified
+         * @param result  packed ARGB raster to write to, with stride equal to the width
+         */
+        void apply(Picture picture, int[] result);
+    }
+
+    /**
+     * A neighborhood stage, or the input picture if there is none, followed by the pixel stages fused into it.
+     */
+    private static class Pass {
+        private final NeighborhoodStage neighborhood;
+        private final List<PixelStage> pixelStages = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param neighborhood stage producing the raster of this pass, null to read the input picture
+         */
+        Pass(NeighborhoodStage neighborhood) {
+            this.neighborhood = neighborhood;
+        }
+    }
+
+    private final List<Pass> passes = new ArrayList<>();
+    private final ForkJoinPool pool; // Null runs the pixel passes on the calling thread.
+
+    /**
+     * Constructor. Pixel passes run on the calling thread, so pixel stages need not be thread safe.
+     */
+    public FilterPipeline() {
+        this(null);
+    }
+
+    /**
+     * Constructor. Pixel passes are split into bands run on the given pool, so pixel stages must be thread safe.
+     *
+     * @param pool fork/join pool to run the pixel passes on, null for the calling thread
+     */
+    public FilterPipeline(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Append a pixel stage. It is fused into the pass of the previous stage.
+     *
+     * @param stage stage to append
+     * @return this pipeline
+     */
+    public FilterPipeline map(PixelStage stage) {
+        if (passes.isEmpty())
+            passes.add(new Pass(null));
+        passes.get(passes.size() - 1).pixelStages.add(stage);
+        return this;
+    }
+
+    /**
+     * Append a neighborhood stage. It starts a new pass over a new raster.
+     *
+     * @param stage stage to append
+     * @return this pipeline
+     */
+    public FilterPipeline then(NeighborhoodStage stage) {
+        passes.add(new Pass(stage));
+        return this;
+    }
+
+    /**
+     * Get the number of passes over the raster made by apply().
+     *
+     * @return number of passes
+     */
+    public int getPasses() {
+        return passes.size();
+    }
+
+    /**
+     * Apply all stages to a picture.
+     *
+     * @param picture Picture to be transformed, not modified
+     * @return transformed picture, or the given picture itself if the pipeline is empty
+     */
+    public Picture apply(Picture picture) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+
+        Picture current = picture;
+        int[] raster = null, spare = null;
+        for (Pass pass : passes) {
+            PixelStage[] stages = pass.pixelStages.toArray(new PixelStage[0]);
+            int[] target = (spare != null) ? spare : new int[width * height];
+
+            if (pass.neighborhood != null) {
+                pass.neighborhood.apply(current, target);
+                map(target, width, target, width, height, stages);
+            } else {
+                map(current.getRaster(), current.getStride(), target, width, height, stages);
+            }
+
+            spare = raster;
+            raster = target;
+            current = new Picture(raster, width, height);
+        }
+        return current;
+    }
+
+    /**
+     * Run the fused pixel stages over a raster. The source and the target may be the same array.
+     *
+     * @param source       packed ARGB raster to read
+     * @param sourceStride row stride of the source raster
+     * @param target       packed ARGB raster to write to, with stride equal to the width
+     * @param width        width of the picture
+     * @param height       height of the picture
+     * @param stages       pixel stages to apply, in order
+     */
+    private void map(int[] source, int sourceStride, int[] target, int width, int height, PixelStage[] stages) {
+        if (stages.length == 0 && source == target)
+            return;
+
+        ParallelRows.Band band = (startRow, endRow) -> {
+            for (int i = startRow; i < endRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    int argb = source[i * sourceStride + j];
+                    for (PixelStage stage : stages)
+                        argb = stage.apply(argb);
+                    target[i * width + j] = argb;
+                }
+            }
+        };
+        if (pool == null)
+            band.apply(0, height);
+        else
+            ParallelRows.forEachBand(height, pool, band);
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Process-wide RGB to Lab lookup table. Holds the Lab value of every 24-bit RGB color as three floats, stored
+ * off-heap so that the table (192 MiB) does not count towards the Java heap. The table is built lazily, in
+ * parallel, the first time a color is looked up.
+ */
+public final class LabTable {
+    private static final int COLORS = 1 << 24;
+    private static final int CHANNELS = 3;
+
+    /**
+     * Lazy holder for the table. The JVM guarantees the table is built once, on first access.
+     */
+    private static class Holder {
+        private static final FloatBuffer TABLE = build();
+    }
+
+    private LabTable() {
+    }
+
+    /**
+     * Get the L value of an RGB color.
+     *
+     * @param rgb rgb value, the alpha byte is ignored
+     * @return L value
+     */
+    public static float lightness(int rgb) {
+        return Holder.TABLE.get((rgb & 0xFFFFFF) * CHANNELS);
+    }
+
+    /**
+     * Get the a value of an RGB color.
+     *
+     * @param rgb rgb value, the alpha byte is ignored
+     * @return a value
+     */
+    public static float a(int rgb) {
+        return Holder.TABLE.get((rgb & 0xFFFFFF) * CHANNELS + 1);
+    }
+
+    /**
+     * Get the b value of an RGB color.
+     *
+     * @param rgb rgb value, the alpha byte is ignored
+     * @return b value
+     */
+    public static float b(int rgb) {
+        return Holder.TABLE.get((rgb & 0xFFFFFF) * CHANNELS + 2);
+    }
+
+    /**
+     * Build the table. The RGB to XYZ step is linear after the per-channel transfer curve, so the curve is computed
+     * once per channel value and the XYZ contribution of red and green is reused across each row of blues. Each red
+     * plane is filled by its own task; absolute puts never touch the buffer position, so the planes can be written
+     * concurrently.
+     *
+     * @return table of {l, a, b} floats indexed by rgb * 3
+     */
+    private static FloatBuffer build() {
+        FloatBuffer table = ByteBuffer.allocateDirect(COLORS * CHANNELS * Float.BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        double[][] redXyz = new double[256][], greenXyz = new double[256][], blueXyz = new double[256][];
+        for (int c = 0; c < 256; c++) {
+            redXyz[c] = ColorMath.rgbToXyz(c, 0, 0);
+            greenXyz[c] = ColorMath.rgbToXyz(0, c, 0);
+            blueXyz[c] = ColorMath.rgbToXyz(0, 0, c);
+        }
+
+        IntStream.range(0, 256).parallel().forEach(r -> {
+            double[] red = redXyz[r];
+            for (int g = 0; g < 256; g++) {
+                double[] green = greenXyz[g];
+                double x = red[0] + green[0], y = red[1] + green[1], z = red[2] + green[2];
+                for (int b = 0; b < 256; b++) {
+                    double[] blue = blueXyz[b];
+                    double[] lab = ColorMath.xyzToLab(x + blue[0], y + blue[1], z + blue[2]);
+                    int index = ((r << 16) | (g << 8) | b) * CHANNELS;
+                    table.put(index, (float) lab[0]);
+                    table.put(index + 1, (float) lab[1]);
+                    table.put(index + 2, (float) lab[2]);
+                }
+            }
+        });
+        return table;
+    }
+}
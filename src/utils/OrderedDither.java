@@ -0,0 +1,304 @@
+package utils;
+
+import models.Picture;
+import models.palette.InverseColormap;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Ordered dithering onto a palette. Every pixel is offset by the threshold of its cell in a matrix tiled over the
+ * picture, then mapped to its nearest palette color through an inverse colormap. Unlike error diffusion, every pixel
+ * only depends on its own color and position, so pictures are mapped in parallel bands, and any band of a picture
+ * gives the same pixels as the whole picture.
+ * <p>
+ * Bayer matrices give the classic cross-hatch patterns. Blue-noise matrices, built with Ulichney's void-and-cluster
+ * method, spread the same levels without visible structure.
+ * <p>
+ * A matrix is immutable, so it can be shared by any number of threads.
+ */
+public class OrderedDither {
+    public static final int DEFAULT_BAYER_SIZE = 8;
+    public static final int DEFAULT_BLUE_NOISE_SIZE = 64;
+    public static final int MAX_SIZE = 64;
+
+    // Standard deviation of the Gaussian filter measuring clusters and voids, and seed of the initial pattern, so that
+    // the blue-noise matrices are always the same.
+    private static final double BLUE_NOISE_SIGMA = 1.5;
+    private static final long BLUE_NOISE_SEED = 42;
+
+    private final int size, mask, shift;
+    private final int[] ranks;
+
+    /**
+     * Constructor.
+     *
+     * @param size  side of the matrix, a power of two
+     * @param ranks rank of every cell from 0 to size * size - 1, row by row
+     */
+    private OrderedDither(int size, int[] ranks) {
+        this.size = size;
+        this.mask = size - 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.ranks = ranks;
+    }
+
+    /**
+     * Build a Bayer matrix.
+     *
+     * @param size side of the matrix, a power of two from 2 to MAX_SIZE
+     * @return ordered dither with the matrix
+     */
+    public static OrderedDither bayer(int size) {
+        checkSize(size);
+
+        // Every doubling replaces each cell by a 2x2 block of its rank times 4, plus 0, 2, 3 and 1
+        int[] ranks = {0};
+        for (int side = 1; side < size; side *= 2) {
+            int[] next = new int[4 * side * side];
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    int rank = 4 * ranks[y * side + x];
+                    next[y * 2 * side + x] = rank;
+                    next[y * 2 * side + x + side] = rank + 2;
+                    next[(y + side) * 2 * side + x] = rank + 3;
+                    next[(y + side) * 2 * side + x + side] = rank + 1;
+                }
+            }
+            ranks = next;
+        }
+        return new OrderedDither(size, ranks);
+    }
+
+    /**
+     * Build a blue-noise matrix with the void-and-cluster method. The matrix wraps around, so it tiles without seams.
+     *
+     * @param size side of the matrix, a power of two from 4 to MAX_SIZE
+     * @return ordered dither with the matrix
+     */
+    public static OrderedDither blueNoise(int size) {
+        checkSize(size);
+        if (size < 4)
+            throw new IllegalArgumentException("Blue-noise matrix size must be at least 4, got " + size);
+
+        int cells = size * size, mask = size - 1;
+        double[] kernel = new double[cells];
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                int x = Math.min(dx, size - dx), y = Math.min(dy, size - dy);
+                kernel[dy * size + dx] = Math.exp(-(x * x + y * y) / (2 * BLUE_NOISE_SIGMA * BLUE_NOISE_SIGMA));
+            }
+        }
+
+        // Initial pattern: a tenth of the cells set at random, then the tightest cluster moved to the largest void
+        // until it would move back to where it was
+        boolean[] pattern = new boolean[cells];
+        double[] energy = new double[cells];
+        Random random = new Random(BLUE_NOISE_SEED);
+        int ones = Math.max(1, cells / 10);
+        for (int placed = 0; placed < ones; ) {
+            int cell = random.nextInt(cells);
+            if (!pattern[cell]) {
+                toggle(pattern, energy, kernel, size, mask, cell);
+                placed++;
+            }
+        }
+        for (int moves = 0; moves < cells; moves++) {
+            int cluster = extreme(pattern, energy, true);
+            toggle(pattern, energy, kernel, size, mask, cluster);
+            int largestVoid = extreme(pattern, energy, false);
+            toggle(pattern, energy, kernel, size, mask, largestVoid);
+            if (largestVoid == cluster)
+                break;
+        }
+
+        // Rank the initial cells by removing the tightest clusters, then the others by filling the largest voids
+        int[] ranks = new int[cells];
+        boolean[] removing = pattern.clone();
+        double[] removingEnergy = energy.clone();
+        for (int rank = ones - 1; rank >= 0; rank--) {
+            int cluster = extreme(removing, removingEnergy, true);
+            toggle(removing, removingEnergy, kernel, size, mask, cluster);
+            ranks[cluster] = rank;
+        }
+        for (int rank = ones; rank < cells; rank++) {
+            int largestVoid = extreme(pattern, energy, false);
+            toggle(pattern, energy, kernel, size, mask, largestVoid);
+            ranks[largestVoid] = rank;
+        }
+        return new OrderedDither(size, ranks);
+    }
+
+    /**
+     * Get the side of the matrix.
+     *
+     * @return side of the matrix
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the rank of a pixel in the matrix tiled over the picture.
+     *
+     * @param x column of the pixel
+     * @param y row of the pixel
+     * @return rank from 0 to getSize() * getSize() - 1
+     */
+    public int getRank(int x, int y) {
+        return ranks[(y & mask) << shift | (x & mask)];
+    }
+
+    /**
+     * Get the offset added to every channel of the pixels of every cell, centered on 0.
+     *
+     * @param spread difference between the offsets of the lowest and highest ranks, in channel levels
+     * @return offset of every cell, row by row
+     */
+    public int[] getOffsets(int spread) {
+        int cells = ranks.length;
+        int[] offsets = new int[cells];
+        for (int i = 0; i < cells; i++)
+            offsets[i] = (int) Math.round(((ranks[i] + 0.5) / cells - 0.5) * spread);
+        return offsets;
+    }
+
+    /**
+     * Get the spread that lets a pixel reach the palette colors around it: the mean distance, on the channel that
+     * differs most, from every palette color to its nearest other color. A uniform palette with n levels per channel
+     * gets a spread of 255 / (n - 1).
+     *
+     * @param colormap inverse colormap of the palette
+     * @return spread in channel levels, 0 for a palette of a single color
+     */
+    public static int getSpread(InverseColormap colormap) {
+        int k = colormap.size();
+        if (k < 2)
+            return 0;
+
+        long sum = 0;
+        for (int i = 0; i < k; i++) {
+            int color = colormap.getColor(i), nearest = 255;
+            for (int j = 0; j < k; j++) {
+                if (j == i)
+                    continue;
+                int other = colormap.getColor(j);
+                int distance = Math.max(Math.abs((color >> 16 & 0xFF) - (other >> 16 & 0xFF)),
+                        Math.max(Math.abs((color >> 8 & 0xFF) - (other >> 8 & 0xFF)),
+                                Math.abs((color & 0xFF) - (other & 0xFF))));
+                if (distance > 0)
+                    nearest = Math.min(nearest, distance);
+            }
+            sum += nearest;
+        }
+        return (int) Math.round(sum / (double) k);
+    }
+
+    /**
+     * Dither a whole picture onto a palette, in parallel bands, with the spread of getSpread().
+     *
+     * @param picture  Picture to be transformed, not modified
+     * @param colormap inverse colormap of the palette
+     * @param pool     pool to run the bands on
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    public void apply(Picture picture, InverseColormap colormap, ForkJoinPool pool, int[] result) {
+        int[] offsets = getOffsets(getSpread(colormap));
+        ParallelRows.forEachBand(picture.getHeight(), pool, (startRow, endRow) ->
+                applyRows(picture, colormap, offsets, 0, startRow, endRow, result));
+    }
+
+    /**
+     * Dither rows of a picture onto a palette. The pixels are dithered as if the picture started at the given row of
+     * a larger picture.
+     *
+     * @param picture  Picture to be transformed, not modified
+     * @param colormap inverse colormap of the palette
+     * @param offsets  offsets of the cells, from getOffsets()
+     * @param top      row of the larger picture the first row of the picture is at
+     * @param startRow first row to dither, inclusive
+     * @param endRow   last row to dither, exclusive
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    void applyRows(Picture picture, InverseColormap colormap, int[] offsets, int top, int startRow, int endRow,
+                   int[] result) {
+        int width = picture.getWidth();
+        int[] raster = picture.getRaster();
+        int stride = picture.getStride();
+
+        for (int i = startRow; i < endRow; i++) {
+            int row = ((top + i) & mask) << shift;
+            for (int j = 0; j < width; j++) {
+                int rgb = raster[i * stride + j];
+                int offset = offsets[row | (j & mask)];
+                int red = clamp((rgb >> 16 & 0xFF) + offset);
+                int green = clamp((rgb >> 8 & 0xFF) + offset);
+                int blue = clamp((rgb & 0xFF) + offset);
+                result[i * width + j] = colormap.nearestColor(red << 16 | green << 8 | blue);
+            }
+        }
+    }
+
+    /**
+     * Clamp a channel value.
+     *
+     * @param value channel value
+     * @return value clamped from 0 to 255
+     */
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Check the side of a matrix.
+     *
+     * @param size side of the matrix
+     * @throws IllegalArgumentException if the side is not a power of two from 2 to MAX_SIZE
+     */
+    private static void checkSize(int size) {
+        if (size < 2 || size > MAX_SIZE || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Matrix size must be a power of two from 2 to " + MAX_SIZE + ", got "
+                    + size);
+    }
+
+    /**
+     * Set or clear a cell of a binary pattern, and update the Gaussian-filtered energy of the set cells.
+     *
+     * @param pattern binary pattern
+     * @param energy  energy of every cell
+     * @param kernel  Gaussian filter, indexed by wrapped offset
+     * @param size    side of the pattern
+     * @param mask    side minus one
+     * @param cell    cell to toggle
+     */
+    private static void toggle(boolean[] pattern, double[] energy, double[] kernel, int size, int mask, int cell) {
+        pattern[cell] = !pattern[cell];
+        double sign = pattern[cell] ? 1 : -1;
+        int cellX = cell & mask, cellY = cell / size;
+        for (int y = 0; y < size; y++) {
+            int row = ((y - cellY) & mask) * size;
+            for (int x = 0; x < size; x++)
+                energy[y * size + x] += sign * kernel[row + ((x - cellX) & mask)];
+        }
+    }
+
+    /**
+     * Find the tightest cluster, the set cell with the highest energy, or the largest void, the clear cell with the
+     * lowest energy. Ties go to the first cell.
+     *
+     * @param pattern binary pattern
+     * @param energy  energy of every cell
+     * @param cluster true for the tightest cluster, false for the largest void
+     * @return index of the cell
+     */
+    private static int extreme(boolean[] pattern, double[] energy, boolean cluster) {
+        int best = -1;
+        for (int cell = 0; cell < pattern.length; cell++) {
+            if (pattern[cell] != cluster)
+                continue;
+            if (best < 0 || (cluster ? energy[cell] > energy[best] : energy[cell] < energy[best]))
+                best = cell;
+        }
+        return best;
+    }
+}
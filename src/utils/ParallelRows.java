@@ -0,0 +1,94 @@
+package utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a row-wise computation over a picture on a fork/join pool. The rows are split into contiguous bands, sized so
+ * that every worker of the pool gets a few bands to balance uneven work. Each band must only write the output rows
+ * it owns, which makes the result independent of the number of workers.
+ */
+public class ParallelRows {
+    // Bands per worker. More bands balance uneven rows better, fewer bands cost less scheduling.
+    private static final int BANDS_PER_WORKER = 4;
+
+    /**
+     * Computation applied to a band of rows.
+     */
+    @FunctionalInterface
+    public interface Band {
+        /**
+         * Process rows [startRow, endRow).
+         *
+         * @param startRow first row of the band, inclusive
+         * @param endRow   last row of the band, exclusive
+         */
+        void apply(int startRow, int endRow);
+    }
+
+    /**
+     * Apply a band computation to all rows using the common fork/join pool.
+     *
+     * @param height number of rows
+     * @param band   computation to apply
+     */
+    public static void forEachBand(int height, Band band) {
+        forEachBand(height, ForkJoinPool.commonPool(), band);
+    }
+
+    /**
+     * Apply a band computation to all rows using the given fork/join pool. Runs on the calling thread if the pool
+     * has a single worker.
+     *
+     * @param height number of rows
+     * @param pool   pool to run the bands on
+     * @param band   computation to apply
+     */
+    public static void forEachBand(int height, ForkJoinPool pool, Band band) {
+        int parallelism = pool.getParallelism();
+        if (parallelism <= 1 || height <= 1) {
+            band.apply(0, height);
+            return;
+        }
+
+        int bands = parallelism * BANDS_PER_WORKER;
+        int bandHeight = Math.max(1, (height + bands - 1) / bands);
+        pool.invoke(new BandTask(band, 0, height, bandHeight));
+    }
+
+    /**
+     * Recursively halves a range of rows until it is no taller than the band height.
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band band;
+        private final int startRow, endRow, bandHeight;
+
+        /**
+         * Constructor.
+         *
+         * @param band       computation to apply
+         * @param startRow   first row, inclusive
+         * @param endRow     last row, exclusive
+         * @param bandHeight maximum number of rows processed by a single task
+         */
+        BandTask(Band band, int startRow, int endRow, int bandHeight) {
+            this.band = band;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.bandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= bandHeight) {
+                band.apply(startRow, endRow);
+                return;
+            }
+
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new BandTask(band, startRow, middle, bandHeight), new BandTask(band, middle, endRow, bandHeight));
+        }
+    }
+}
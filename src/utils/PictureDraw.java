@@ -18,32 +18,42 @@ public class PictureDraw {
     public static BufferedImage detectEdge(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        detectEdgeRows(picture, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Detect and draw the edge for a whole picture.
+     *
+     * @param picture Picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void detectEdgeRows(Picture picture, int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
+        for (int i = 0; i < height; i++)
+            System.arraycopy(original, i * stride, result, i * width, width);
 
         // Iterate through pixel matrix horizontally
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width - 1; j++) {
-                if (original[i][j].getRGB() != original[i][j + 1].getRGB())
-                    result[i][j] = new Pixel(Pixel.MAX_ALPHA, 0, 0, 0);
-                else
-                    result[i][j] = original[i][j];
+                if (((original[i * stride + j] ^ original[i * stride + j + 1]) & 0xFFFFFF) != 0)
+                    result[i * width + j] = Pixel.MAX_ALPHA;
             }
         }
 
         // Iterate through pixel matrix vertically
         for (int j = 0; j < width; j++) {
             for (int i = 0; i < height - 1; i++) {
-                if (original[i][j].getRGB() != original[i + 1][j].getRGB())
-                    result[i][j] = new Pixel(Pixel.MAX_ALPHA, 0, 0, 0);
-                else
-                    result[i][j] = result[i][j] == null? original[i][j] : result[i][j];
+                if (((original[i * stride + j] ^ original[(i + 1) * stride + j]) & 0xFFFFFF) != 0)
+                    result[i * width + j] = Pixel.MAX_ALPHA;
             }
         }
-
-        result[height - 1][width - 1] = original[height - 1][width - 1];
-
-        return (new Picture(result)).getImage();
     }
 }
@@ -1,17 +1,31 @@
 package utils;
 
+import models.palette.ColorHistogram;
+import models.palette.FixedPalette;
+import models.palette.InverseColormap;
 import models.palette.KMeansPalette;
 import models.palette.Palette;
+import models.palette.PaletteLookup;
 import models.Picture;
 import models.Pixel;
 
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * PictureFilter class. Contains implementations of all filters. TODO: Code cleaning
  */
 public class PictureFilter {
+    // Pictures with more pixels than this build their palette from the full resolution with mini-batch K-means.
+    private static final int MINI_BATCH_MIN_PIXELS = 512 * 512;
+    private static final int HISTOGRAM_BITS = 6;
+    private static final int HISTOGRAM_MAX_COLORS = 1 << 16;
+    // Rows filtered with their own palette by the parallel linear difference filters. Fixed, so that the result does
+    // not depend on the number of workers.
+    private static final int DIFFERENCE_BAND_HEIGHT = 64;
+    // Grid weights used when the caller passes 0.
+    static final double DEFAULT_MID_WEIGHT = 0.1, DEFAULT_NEIGHBOR_WEIGHT = 0.0375;
 
     /**
      * Combines the pros of grid algorithm (averaging, mosaic) and color difference algorithm (palette) together.
@@ -20,53 +34,82 @@ public class PictureFilter {
      * @return transformed picture
      */
     public static BufferedImage gridDifferenceFilter(Picture picture) {
+        return gridDifferenceFilter(picture, 4);
+    }
+
+    /**
+     * Combines the pros of grid algorithm (averaging, mosaic) and color difference algorithm (palette) together. Each
+     * block is represented by the average of its inner half, read from a summed-area table so that the cost does
+     * not depend on the block size. Blocks smaller than 4 pixels have no inner half and are averaged whole.
+     *
+     * @param picture   Picture to be transformed
+     * @param blockSize side of the square blocks, at least 1
+     * @return transformed picture
+     * @throws IllegalArgumentException if the block size is less than 1
+     */
+    public static BufferedImage gridDifferenceFilter(Picture picture, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1, got " + blockSize);
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        gridDifferenceRows(picture, blockSize, new Palette(), null, result);
 
-        // Initialize palette
-        Palette palette = new Palette();
-        Pixel currentColor = null;
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the grid difference filter to all rows of a picture, carrying the palette and the current color over
+     * from previously filtered rows. Filtering a picture band by band with bands that are a multiple of the block
+     * size tall gives the same result as filtering it at once.
+     *
+     * @param picture      Picture or band of a picture to be transformed
+     * @param blockSize    side of the square blocks
+     * @param palette      palette of the colors used so far, updated with new colors
+     * @param currentColor color of the last block of the previous rows, null if there is none
+     * @param result       packed ARGB raster to write to, with stride equal to the width
+     * @return color of the last block, to pass on to the next rows
+     */
+    static Pixel gridDifferenceRows(Picture picture, int blockSize, PaletteLookup palette, Pixel currentColor,
+                                    int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
+        SummedAreaTable table = new SummedAreaTable(picture);
+        int inset = blockSize / 4;
+        boolean started = currentColor != null;
+        int current = started ? currentColor.getARGB() : 0;
 
         // Iterate through pixel matrix
-        for (int i = 0; i < height; i += 4) {
-            for (int j = 0; j < width; j += 4) {
+        for (int i = 0; i < height; i += blockSize) {
+            for (int j = 0; j < width; j += blockSize) {
 
-                // Obtain average of 4 inner colors
-                ArrayList<Pixel> colors = new ArrayList<>();
-                Pixel averageColor;
-                for (int x = Math.min(i + 1, height); x < Math.min(i + 3, height); x++) {
-                    for (int y = Math.min(j + 1, width); y < Math.min(j + 3, width); y++) {
-                        colors.add(original[x][y]);
-                    }
-                }
-                averageColor = colors.size() == 0 ? original[i][j] : Pixel.average(colors);
+                // Obtain average of inner colors
+                int top = Math.min(i + inset, height), bottom = Math.min(i + blockSize - inset, height);
+                int left = Math.min(j + inset, width), right = Math.min(j + blockSize - inset, width);
+                int averageColor = (top == bottom || left == right) ? original[i * stride + j]
+                        : table.average(top, left, bottom, right);
 
                 // Obtain current color
-                if (currentColor == null) {
-                    palette.add(averageColor);
-                    currentColor = averageColor;
-                }
-                if (!Pixel.colorDifferenceScale(currentColor, averageColor).isSimilar()) {
-                    if (palette.exists(averageColor)) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(averageColor);
-                        currentColor = averageColor;
-                    }
+                if (!started) {
+                    current = fromPalette(averageColor, palette);
+                    started = true;
                 }
+                if (!ColorMath.colorDifferenceScale(current, averageColor).isSimilar())
+                    current = fromPalette(averageColor, palette);
 
-                // Paint the 4x4 grid
-                for (int x = i; x < Math.min(height, i + 4); x++) {
-                    for (int y = j; y < Math.min(width, j + 4); y++)
-                        result[x][y] = currentColor;
+                // Paint the grid
+                for (int x = i; x < Math.min(height, i + blockSize); x++) {
+                    for (int y = j; y < Math.min(width, j + blockSize); y++)
+                        result[x * width + y] = current;
                 }
             }
         }
 
-        return (new Picture(result)).getImage();
+        return started ? new Pixel(current) : null;
     }
 
     /**
@@ -80,14 +123,31 @@ public class PictureFilter {
     public static BufferedImage linearDifferenceFilter4(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        linearDifference4Rows(picture, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the spiral linear difference filter to a whole picture.
+     *
+     * @param picture Picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void linearDifference4Rows(Picture picture, int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Initialize palette
-        Pixel currentColor = original[0][0];
+        int currentColor = original[0];
         Palette palette = new Palette();
         palette.add(currentColor);
+        int[] colors = new int[4];
 
         // Iterate through pixel matrix in spiral motion
         int firstCol = 0, lastCol = width - 1;
@@ -96,95 +156,197 @@ public class PictureFilter {
         while (firstCol <= lastCol && firstRow <= lastRow) {
             // Case 1: Right - Neighbors: 3 Northern, 1 West (current)
             for (int i = firstCol; i <= lastCol; i++) {
-                ArrayList<Pixel> colors = new ArrayList<>();
+                int pixel = original[firstRow * stride + i];
+                int count = 0;
                 // Check neighbors
                 for (int x = Math.max(0, i - 1); firstRow != 0 && x < Math.min(width, i + 2); x++) {
-                    colors.add(result[firstRow - 1][x]);
-                }
-                colors.add(currentColor);
-                currentColor = Palette.nearestColor(original[firstRow][i], colors);
-                // Check palette
-                if (currentColor == null) {
-                    if (palette.exists(original[firstRow][i])) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(original[firstRow][i]);
-                        currentColor = original[firstRow][i];
-                    }
+                    colors[count++] = result[(firstRow - 1) * width + x];
                 }
-                result[firstRow][i] = currentColor;
+                colors[count++] = currentColor;
+                currentColor = nearestOrPalette(pixel, colors, count, palette);
+                result[firstRow * width + i] = currentColor;
             }
             firstRow++;
 
             // Case 2: Down - Neighbors: 3 Eastern, 1 North
             for (int i = firstRow; i <= lastRow; i++) {
-                ArrayList<Pixel> colors = new ArrayList<>();
+                int pixel = original[i * stride + lastCol];
+                int count = 0;
                 // Check neighbors
                 for (int x = Math.max(0, i - 1); lastCol != width - 1 && x < Math.min(height, i + 2); x++) {
-                    colors.add(result[x][lastCol + 1]);
+                    colors[count++] = result[x * width + lastCol + 1];
                 }
-                colors.add(currentColor);
-                currentColor = Palette.nearestColor(original[i][lastCol], colors);
-                // Check palette
-                if (currentColor == null) {
-                    if (palette.exists(original[i][lastCol])) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(original[i][lastCol]);
-                        currentColor = original[i][lastCol];
-                    }
-                }
-                result[i][lastCol] = currentColor;
+                colors[count++] = currentColor;
+                currentColor = nearestOrPalette(pixel, colors, count, palette);
+                result[i * width + lastCol] = currentColor;
             }
             lastCol--;
 
             // Case 3: Left - Neighbors: 3 Southern, 1 East
             for (int i = lastCol; i >= firstCol; i--) {
-                ArrayList<Pixel> colors = new ArrayList<>();
+                int pixel = original[lastRow * stride + i];
+                int count = 0;
                 // Check neighbors
                 for (int x = Math.max(0, i - 1); lastRow != height - 1 && x < Math.min(width, i + 2); x++) {
-                    colors.add(result[lastRow + 1][x]);
-                }
-                colors.add(currentColor);
-                currentColor = Palette.nearestColor(original[lastRow][i], colors);
-                // Check palette
-                if (currentColor == null) {
-                    if (palette.exists(original[lastRow][i])) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(original[lastRow][i]);
-                        currentColor = original[lastRow][i];
-                    }
+                    colors[count++] = result[(lastRow + 1) * width + x];
                 }
-                result[lastRow][i] = currentColor;
+                colors[count++] = currentColor;
+                currentColor = nearestOrPalette(pixel, colors, count, palette);
+                result[lastRow * width + i] = currentColor;
             }
             lastRow--;
 
             // Case 4: Up - Neighbors: 3 Western, 1 South
             for (int i = lastRow; i >= firstRow; i--) {
-                ArrayList<Pixel> colors = new ArrayList<>();
+                int pixel = original[i * stride + firstCol];
+                int count = 0;
                 // Check neighbors
                 for (int x = Math.max(0, i - 1); firstCol != 0 && x < Math.min(height, i + 2); x++) {
-                    colors.add(result[x][firstCol - 1]);
+                    colors[count++] = result[x * width + firstCol - 1];
                 }
-                colors.add(currentColor);
-                currentColor = Palette.nearestColor(original[i][firstCol], colors);
-                // Check palette
-                if (currentColor == null) {
-                    if (palette.exists(original[i][firstCol])) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(original[i][firstCol]);
-                        currentColor = original[i][firstCol];
-                    }
-                }
-                result[i][firstCol] = currentColor;
+                colors[count++] = currentColor;
+                currentColor = nearestOrPalette(pixel, colors, count, palette);
+                result[i * width + firstCol] = currentColor;
             }
             firstCol++;
 
         }
+    }
 
-        return (new Picture(result)).getImage();
+    /**
+     * Linear difference filter applied to a band of rows with its own palette.
+     */
+    @FunctionalInterface
+    private interface DifferenceBand {
+        /**
+         * Filter a band of rows, as if the band were a whole picture.
+         *
+         * @param picture  Picture to be transformed
+         * @param startRow first row of the band, inclusive
+         * @param endRow   last row of the band, exclusive
+         * @param palette  empty palette, filled with the colors of the band
+         * @param result   packed ARGB raster to write to, with stride equal to the width
+         */
+        void apply(Picture picture, int startRow, int endRow, Palette palette, int[] result);
+    }
+
+    /**
+     * Apply a linear difference filter to bands of DIFFERENCE_BAND_HEIGHT rows in parallel, then reconcile the colors
+     * of the bands, in order. A band color takes the color of the pixel above it across the seam with the previous
+     * band if the two are similar, like the sequential filters carry colors from row to row. Any other band color
+     * similar to a color of an earlier band takes that color. The replacements are applied in a last parallel pass.
+     *
+     * @param picture Picture to be transformed
+     * @param band    filter applied to every band
+     * @param pool    pool to run the bands on
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    private static void parallelDifferenceRows(Picture picture, DifferenceBand band, ForkJoinPool pool,
+                                               int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int bands = (height + DIFFERENCE_BAND_HEIGHT - 1) / DIFFERENCE_BAND_HEIGHT;
+
+        Palette[] palettes = new Palette[bands];
+        ParallelRows.forEachBand(bands, pool, (firstBand, lastBand) -> {
+            for (int b = firstBand; b < lastBand; b++) {
+                palettes[b] = new Palette();
+                band.apply(picture, b * DIFFERENCE_BAND_HEIGHT, Math.min(height, (b + 1) * DIFFERENCE_BAND_HEIGHT),
+                        palettes[b], result);
+            }
+        });
+
+        // Colors of every band, sorted, and their replacements, or null if the band keeps its colors
+        Palette merged = new Palette();
+        int[][] originals = new int[bands][], replacements = new int[bands][];
+        int[] above = new int[width];
+        for (int b = 0; b < bands; b++) {
+            Palette palette = palettes[b];
+            int[] colors = new int[palette.getSize()];
+            for (int k = 0; k < colors.length; k++)
+                colors[k] = palette.getARGB(k);
+            Arrays.sort(colors);
+            int count = 0;
+            for (int k = 0; k < colors.length; k++) {
+                if (k == 0 || colors[k] != colors[k - 1])
+                    colors[count++] = colors[k];
+            }
+            colors = Arrays.copyOf(colors, count);
+            int[] replacement = new int[count];
+            boolean[] assigned = new boolean[count];
+
+            int firstRow = b * DIFFERENCE_BAND_HEIGHT;
+            for (int j = 0; b > 0 && j < width; j++) {
+                int index = Arrays.binarySearch(colors, result[firstRow * width + j]);
+                if (!assigned[index] && ColorMath.colorDifferenceScale(colors[index], above[j]).isSimilar()) {
+                    replacement[index] = above[j];
+                    assigned[index] = true;
+                }
+            }
+            for (int k = 0; k < palette.getSize(); k++) {
+                int index = Arrays.binarySearch(colors, palette.getARGB(k));
+                if (!assigned[index]) {
+                    replacement[index] = fromPalette(colors[index], merged);
+                    assigned[index] = true;
+                }
+            }
+
+            if (!Arrays.equals(colors, replacement)) {
+                originals[b] = colors;
+                replacements[b] = replacement;
+            }
+            int lastRow = Math.min(height, firstRow + DIFFERENCE_BAND_HEIGHT) - 1;
+            for (int j = 0; j < width; j++)
+                above[j] = replacement[Arrays.binarySearch(colors, result[lastRow * width + j])];
+        }
+
+        ParallelRows.forEachBand(bands, pool, (firstBand, lastBand) -> {
+            for (int b = firstBand; b < lastBand; b++) {
+                if (originals[b] == null)
+                    continue;
+                int last = 0, lastReplacement = 0;
+                boolean cached = false;
+                int end = Math.min(height, (b + 1) * DIFFERENCE_BAND_HEIGHT) * width;
+                for (int i = b * DIFFERENCE_BAND_HEIGHT * width; i < end; i++) {
+                    // Runs of the same color are the norm, so the previous replacement is kept at hand
+                    int color = result[i];
+                    if (!cached || color != last) {
+                        last = color;
+                        lastReplacement = replacements[b][Arrays.binarySearch(originals[b], color)];
+                        cached = true;
+                    }
+                    result[i] = lastReplacement;
+                }
+            }
+        });
+    }
+
+    /**
+     * Pick the nearest similar color among the candidates, or else a similar color from the palette, or else the
+     * color itself, which is then added to the palette.
+     *
+     * @param pixel   packed ARGB value of the current pixel
+     * @param colors  packed ARGB values of the candidate colors
+     * @param count   number of candidates
+     * @param palette palette of the colors used so far
+     * @return packed ARGB value of the chosen color
+     */
+    private static int nearestOrPalette(int pixel, int[] colors, int count, Palette palette) {
+        int nearest = Palette.nearestIndex(pixel, colors, count);
+        if (nearest >= 0)
+            return colors[nearest];
+        return fromPalette(pixel, palette);
+    }
+
+    /**
+     * Pick a similar color from the palette, or else the color itself, which is then added to the palette.
+     *
+     * @param pixel   packed ARGB value of the current pixel
+     * @param palette palette of the colors used so far
+     * @return packed ARGB value of the chosen color
+     */
+    private static int fromPalette(int pixel, PaletteLookup palette) {
+        return palette.getARGB(palette.findOrAdd(pixel));
     }
 
     /**
@@ -197,42 +359,78 @@ public class PictureFilter {
     public static BufferedImage linearDifferenceFilter3(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        linearDifference3Rows(picture, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Parallel counterpart of linearDifferenceFilter3(), with the same color bounds as the parallel
+     * linearDifferenceFilter(). The neighbors above the first row of every band are not checked.
+     *
+     * @param picture Picture to be transformed
+     * @param pool    pool to run the bands on
+     * @return transformed picture
+     */
+    public static BufferedImage linearDifferenceFilter3(Picture picture, ForkJoinPool pool) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        parallelDifferenceRows(picture, PictureFilter::linearDifference3Band, pool, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the third linear difference filter to a whole picture.
+     *
+     * @param picture Picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void linearDifference3Rows(Picture picture, int[] result) {
+        linearDifference3Band(picture, 0, picture.getHeight(), new Palette(), result);
+    }
+
+    /**
+     * Apply the third linear difference filter to a band of rows, as if the band were a whole picture.
+     *
+     * @param picture  Picture to be transformed
+     * @param startRow first row of the band, inclusive
+     * @param endRow   last row of the band, exclusive
+     * @param palette  empty palette, filled with the colors of the band
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    private static void linearDifference3Band(Picture picture, int startRow, int endRow, Palette palette,
+                                              int[] result) {
+        int width = picture.getWidth();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Initialize palette
-        Pixel currentColor = original[0][0];
-        Palette palette = new Palette();
+        int currentColor = original[startRow * stride];
         palette.add(currentColor);
+        int[] colors = new int[4];
 
         // Iterate through pixel matrix
-        for (int i = 0; i < height; i++) {
+        for (int i = startRow; i < endRow; i++) {
             for (int j = 0; j < width; j++) {
-                if (!Pixel.colorDifferenceScale(currentColor, original[i][j]).isSimilar()) {
-                    // Check 3 neighbors above current pixel
-                    ArrayList<Pixel> colors = new ArrayList<>();
-                    colors.add(currentColor);
-                    for (int x = Math.max(0, j - 1); i != 0 && x < Math.min(width, j + 2); x++) {
-                        colors.add(result[i - 1][x]);
-                    }
-                    currentColor = Palette.nearestColor(original[i][j], colors);
-
-                    // Check palette
-                    if (currentColor == null) {
-                        if (palette.exists(original[i][j])) {
-                            currentColor = palette.getColor();
-                        } else {
-                            palette.add(original[i][j]);
-                            currentColor = original[i][j];
-                        }
+                int pixel = original[i * stride + j];
+                if (!ColorMath.colorDifferenceScale(currentColor, pixel).isSimilar()) {
+                    // Check 3 neighbors above current pixel, then the palette
+                    int count = 0;
+                    colors[count++] = currentColor;
+                    for (int x = Math.max(0, j - 1); i != startRow && x < Math.min(width, j + 2); x++) {
+                        colors[count++] = result[(i - 1) * width + x];
                     }
+                    currentColor = nearestOrPalette(pixel, colors, count, palette);
                 }
-                result[i][j] = currentColor;
+                result[i * width + j] = currentColor;
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
@@ -245,43 +443,83 @@ public class PictureFilter {
     public static BufferedImage linearDifferenceFilter2(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        linearDifference2Rows(picture, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Parallel counterpart of linearDifferenceFilter2(), with the same color bounds as the parallel
+     * linearDifferenceFilter(). The neighbors above the first row of every band are not checked.
+     *
+     * @param picture Picture to be transformed
+     * @param pool    pool to run the bands on
+     * @return transformed picture
+     */
+    public static BufferedImage linearDifferenceFilter2(Picture picture, ForkJoinPool pool) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        parallelDifferenceRows(picture, PictureFilter::linearDifference2Band, pool, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the second linear difference filter to a whole picture.
+     *
+     * @param picture Picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void linearDifference2Rows(Picture picture, int[] result) {
+        linearDifference2Band(picture, 0, picture.getHeight(), new Palette(), result);
+    }
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+    /**
+     * Apply the second linear difference filter to a band of rows, as if the band were a whole picture.
+     *
+     * @param picture  Picture to be transformed
+     * @param startRow first row of the band, inclusive
+     * @param endRow   last row of the band, exclusive
+     * @param palette  empty palette, filled with the colors of the band
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    private static void linearDifference2Band(Picture picture, int startRow, int endRow, Palette palette,
+                                              int[] result) {
+        int width = picture.getWidth();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Initialize palette
-        Pixel currentColor = original[0][0];
-        Palette palette = new Palette();
+        int currentColor = original[startRow * stride];
         palette.add(currentColor);
 
         // Iterate through pixel matrix
-        for (int i = 0; i < height; i++) {
+        for (int i = startRow; i < endRow; i++) {
             for (int j = 0; j < width; j++) {
-                if (!Pixel.colorDifferenceScale(currentColor, original[i][j]).isSimilar()) {
+                int pixel = original[i * stride + j];
+                if (!ColorMath.colorDifferenceScale(currentColor, pixel).isSimilar()) {
                     // Check 3 neighbors above current pixel
                     boolean found = false;
-                    for (int x = Math.max(0, j - 1); i != 0 && x < Math.min(width, j + 2); x++) {
-                        if (Pixel.colorDifferenceScale(original[i][j], result[i - 1][x]).isSimilar()) {
-                            currentColor = result[i - 1][x];
+                    for (int x = Math.max(0, j - 1); i != startRow && x < Math.min(width, j + 2); x++) {
+                        int neighbor = result[(i - 1) * width + x];
+                        if (ColorMath.colorDifferenceScale(pixel, neighbor).isSimilar()) {
+                            currentColor = neighbor;
                             found = true;
                             break;
                         }
                     }
                     // Check palette
-                    if (!found) {
-                        if (palette.exists(original[i][j])) {
-                            currentColor = palette.getColor();
-                        } else {
-                            palette.add(original[i][j]);
-                            currentColor = original[i][j];
-                        }
-                    }
+                    if (!found)
+                        currentColor = fromPalette(pixel, palette);
                 }
-                result[i][j] = currentColor;
+                result[i * width + j] = currentColor;
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
@@ -293,32 +531,72 @@ public class PictureFilter {
     public static BufferedImage linearDifferenceFilter(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        linearDifferenceRows(picture, result);
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Parallel counterpart of linearDifferenceFilter(). Bands of rows are filtered at once, each with its own
+     * palette, then colors similar to one used in an earlier band take that color. Pixels are within twice the
+     * similarity threshold of their original color instead of once, so within three times of the sequential result.
+     *
+     * @param picture Picture to be transformed
+     * @param pool    pool to run the bands on
+     * @return transformed picture
+     */
+    public static BufferedImage linearDifferenceFilter(Picture picture, ForkJoinPool pool) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        parallelDifferenceRows(picture, PictureFilter::linearDifferenceBand, pool, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the linear difference filter to a whole picture.
+     *
+     * @param picture Picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void linearDifferenceRows(Picture picture, int[] result) {
+        linearDifferenceBand(picture, 0, picture.getHeight(), new Palette(), result);
+    }
+
+    /**
+     * Apply the linear difference filter to a band of rows, as if the band were a whole picture.
+     *
+     * @param picture  Picture to be transformed
+     * @param startRow first row of the band, inclusive
+     * @param endRow   last row of the band, exclusive
+     * @param palette  empty palette, filled with the colors of the band
+     * @param result   packed ARGB raster to write to, with stride equal to the width
+     */
+    private static void linearDifferenceBand(Picture picture, int startRow, int endRow, Palette palette,
+                                             int[] result) {
+        int width = picture.getWidth();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Initialize palette
-        Pixel currentColor = original[0][0];
-        Palette palette = new Palette();
+        int currentColor = original[startRow * stride];
         palette.add(currentColor);
 
         // Iterate through pixel matrix
-        for (int i = 0; i < height; i++) {
+        for (int i = startRow; i < endRow; i++) {
             for (int j = 0; j < width; j++) {
-                if (!Pixel.colorDifferenceScale(currentColor, original[i][j]).isSimilar()) {
-                    // Check palette
-                    if (palette.exists(original[i][j])) {
-                        currentColor = palette.getColor();
-                    } else {
-                        palette.add(original[i][j]);
-                        currentColor = original[i][j];
-                    }
-                }
-                result[i][j] = currentColor;
+                int pixel = original[i * stride + j];
+                // Check palette
+                if (!ColorMath.colorDifferenceScale(currentColor, pixel).isSimilar())
+                    currentColor = fromPalette(pixel, palette);
+                result[i * width + j] = currentColor;
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
@@ -330,33 +608,43 @@ public class PictureFilter {
     public static BufferedImage gridSpaceFilter2(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        gridSpace2Rows(picture, result);
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the second grid space filter to all rows of a picture. Bands that are a multiple of 4 rows tall can be
+     * filtered independently.
+     *
+     * @param picture Picture or band of a picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void gridSpace2Rows(Picture picture, int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Iterate through pixel matrix
         for (int i = 0; i < height; i += 4) {
             for (int j = 0; j < width; j += 4) {
 
-                ArrayList<Pixel> colors = new ArrayList<>();
-                Pixel currentColor;
-                for (int x = Math.min(i + 1, height); x < Math.min(i + 3, height); x++) {
-                    for (int y = Math.min(j + 1, width); y < Math.min(j + 3, width); y++) {
-                        colors.add(original[x][y]);
-                        break;
-                    }
-                }
-                currentColor = colors.size() == 0 ? original[i][j] : colors.get(0);
+                // Sample the pixel at (1, 1), falling back to the top left pixel on the edges
+                int currentColor = original[i * stride + j];
+                if (i + 1 < height && j + 1 < width)
+                    currentColor = original[(i + 1) * stride + j + 1];
 
                 // Paint the 4x4 grid
                 for (int x = i; x < Math.min(height, i + 4); x++) {
                     for (int y = j; y < Math.min(width, j + 4); y++)
-                        result[x][y] = currentColor;
+                        result[x * width + y] = currentColor;
                 }
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
@@ -368,9 +656,26 @@ public class PictureFilter {
     public static BufferedImage gridSpaceFilter(Picture picture) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        gridSpaceRows(picture, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the grid space filter to all rows of a picture. Bands that are a multiple of 4 rows tall can be filtered
+     * independently.
+     *
+     * @param picture Picture or band of a picture to be transformed
+     * @param result  packed ARGB raster to write to, with stride equal to the width
+     */
+    static void gridSpaceRows(Picture picture, int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
 
         // Iterate through pixel matrix
         for (int i = 0; i < height; i += 4) {
@@ -379,17 +684,16 @@ public class PictureFilter {
                 // Iterate through 4x4 grid
                 for (int x = i; x < Math.min(height, i + 4); x++) {
                     for (int y = j; y < Math.min(width, j + 4); y++) {
-                        result[x][y] = original[i][j];
+                        result[x * width + y] = original[i * stride + j];
                     }
                 }
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
-     * Determine the color of the middle pixel in a 5x5 grid by assigning weights to the neighbors.
+     * Determine the color of the middle pixel in a 5x5 grid by assigning weights to the neighbors. Rows are
+     * processed in parallel on the common fork/join pool.
      *
      * @param picture        Picture to be transformed
      * @param midWeight      weight of middle pixel
@@ -397,45 +701,112 @@ public class PictureFilter {
      * @return transformed image
      */
     public static BufferedImage gridWeightFilter(Picture picture, double midWeight, double neighborWeight) {
-        midWeight = (midWeight == 0 ? 0.1 : midWeight);
-        neighborWeight = (neighborWeight == 0 ? 0.0375 : neighborWeight);
+        return gridWeightFilter(picture, midWeight, neighborWeight, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Determine the color of the middle pixel in a 5x5 grid by assigning weights to the neighbors. Rows are split
+     * into bands processed in parallel on the given pool; the output does not depend on the pool's parallelism.
+     *
+     * @param picture        Picture to be transformed
+     * @param midWeight      weight of middle pixel
+     * @param neighborWeight weight of neighbor pixels
+     * @param pool           fork/join pool to run on, a pool with parallelism 1 runs on the calling thread
+     * @return transformed image
+     */
+    public static BufferedImage gridWeightFilter(Picture picture, double midWeight, double neighborWeight,
+                                                 ForkJoinPool pool) {
+        return gridWeightFilter(picture, 2, midWeight, neighborWeight, pool);
+    }
 
+    /**
+     * Determine the color of the middle pixel in a (2 * radius + 1) square grid by assigning weights to the
+     * neighbors. Window sums are read from a summed-area table, so the cost does not depend on the radius. Rows are
+     * split into bands processed in parallel on the given pool; the output does not depend on the pool's
+     * parallelism.
+     *
+     * @param picture        Picture to be transformed
+     * @param radius         distance from the middle pixel to the edge of the grid
+     * @param midWeight      weight of middle pixel
+     * @param neighborWeight weight of neighbor pixels
+     * @param pool           fork/join pool to run on, a pool with parallelism 1 runs on the calling thread
+     * @return transformed image
+     */
+    public static BufferedImage gridWeightFilter(Picture picture, int radius, double midWeight, double neighborWeight,
+                                                 ForkJoinPool pool) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        gridWeightRows(picture, radius, midWeight, neighborWeight, pool, result);
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] result = new Pixel[height][width];
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply the grid weight filter to a whole picture, in bands on the given pool.
+     *
+     * @param picture        Picture to be transformed
+     * @param radius         distance from the middle pixel to the edge of the grid
+     * @param midWeight      weight of middle pixel, 0 for the default
+     * @param neighborWeight weight of neighbor pixels, 0 for the default
+     * @param pool           fork/join pool to run on, a pool with parallelism 1 runs on the calling thread
+     * @param result         packed ARGB raster to write to, with stride equal to the width
+     */
+    static void gridWeightRows(Picture picture, int radius, double midWeight, double neighborWeight,
+                               ForkJoinPool pool, int[] result) {
+        final double mid = (midWeight == 0 ? DEFAULT_MID_WEIGHT : midWeight);
+        final double neighbor = (neighborWeight == 0 ? DEFAULT_NEIGHBOR_WEIGHT : neighborWeight);
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
+        SummedAreaTable table = new SummedAreaTable(picture);
+
+        ParallelRows.forEachBand(picture.getHeight(), pool, (startRow, endRow) ->
+                gridWeightRows(original, stride, table, result, 0, radius, mid, neighbor, startRow, endRow));
+    }
+
+    /**
+     * Apply the grid weight filter to rows [startRow, endRow) of the result.
+     *
+     * @param original       packed ARGB raster of the picture
+     * @param stride         row stride of the original raster
+     * @param table          summed-area table of the picture
+     * @param result         packed ARGB raster to write to, with stride equal to the width
+     * @param firstRow       row of the picture that the first row of the result holds
+     * @param radius         distance from the middle pixel to the edge of the grid
+     * @param midWeight      weight of middle pixel
+     * @param neighborWeight weight of neighbor pixels
+     * @param startRow       first row to compute, inclusive
+     * @param endRow         last row to compute, exclusive
+     */
+    static void gridWeightRows(int[] original, int stride, SummedAreaTable table, int[] result, int firstRow,
+                               int radius, double midWeight, double neighborWeight, int startRow, int endRow) {
+        int width = table.getWidth();
+        int height = table.getHeight();
+        int[] sums = new int[4];
 
         // Iterate through pixel matrix
-        for (int i = 0; i < height; i++) {
+        for (int i = startRow; i < endRow; i++) {
+            int top = Math.max(0, i - radius), bottom = Math.min(height, i + radius + 1);
             for (int j = 0; j < width; j++) {
-                Pixel pixel = new Pixel(0, 0, 0, 0);
-                double totalWeight = 0;
-
-                // Iterate through 5x5 grid
-                for (int x = Math.max(0, i - 2); x < Math.min(height, i + 3); x++) {
-                    for (int y = Math.max(0, j - 2); y < Math.min(width, j + 3); y++) {
-                        if (x == i && y == j) {
-                            pixel.add(original[x][y], midWeight);
-                            totalWeight += midWeight;
-                            continue;
-                        }
-                        pixel.add(original[x][y], neighborWeight);
-                        totalWeight += neighborWeight;
-                    }
-                }
+                int left = Math.max(0, j - radius), right = Math.min(width, j + radius + 1);
+                table.sum(top, left, bottom, right, sums);
 
+                // Every pixel of the grid has the neighbor weight, the middle pixel gets the difference on top.
                 // Assign remaining weight to middle pixel.
-                if (totalWeight < 1) {
-                    pixel.add(original[i][j], 1 - totalWeight);
+                double totalWeight = neighborWeight * ((bottom - top) * (right - left) - 1) + midWeight;
+                double extraWeight = midWeight - neighborWeight + (totalWeight < 1 ? 1 - totalWeight : 0);
+
+                int middle = original[i * stride + j];
+                int argb = 0;
+                for (int c = 0, shift = 24; c < 4; c++, shift -= 8) {
+                    double value = sums[c] * neighborWeight + ((middle >> shift) & 0xFF) * extraWeight;
+                    argb |= (((int) value) & 0xFF) << shift;
                 }
-
-                pixel.computeArgb();
-                result[i][j] = pixel;
+                result[(i - firstRow) * width + j] = argb;
             }
         }
-
-        return (new Picture(result)).getImage();
     }
 
     /**
@@ -447,60 +818,266 @@ public class PictureFilter {
     public static BufferedImage colorQuantization(Picture picture, int numColors) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
 
-        Pixel[][] original = picture.getPixels();
-        Pixel[][] downsample = picture.downsample();
-        KMeansPalette palette = new KMeansPalette(downsample, numColors);
+        colorQuantizationRows(picture, numColors, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply color quantization to a whole picture.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the initial palette
+     * @param result    packed ARGB raster to write to, with stride equal to the width
+     */
+    static void colorQuantizationRows(Picture picture, int numColors, int[] result) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
+        KMeansPalette palette = quantizationPalette(picture, numColors);
+
+        if (width * height > MINI_BATCH_MIN_PIXELS) {
+            // Every pixel ends up with the condensed color nearest to its palette color, so both mappings are done
+            // in a single pass: an inverse colormap lookup, then a lookup by palette index.
+            InverseColormap colormap = palette.getColormap();
+            palette.condense(5);
+            int[] condensed = new int[colormap.size()];
+            for (int k = 0; k < condensed.length; k++)
+                condensed[k] = palette.nearestColor(colormap.getColor(k));
+
+            ParallelRows.forEachBand(height, (startRow, endRow) -> {
+                for (int i = startRow; i < endRow; i++)
+                    for (int j = 0; j < width; j++)
+                        result[i * width + j] = condensed[colormap.nearestIndex(original[i * stride + j])];
+            });
+            return;
+        }
 
-        Pixel[][] result = new Pixel[height][width];
         // Iterate through pixel matrix
         for (int i = 0; i < height; i++)
             for (int j = 0; j < width; j++)
-                result[i][j] = palette.nearestColor(original[i][j]);
+                result[i * width + j] = palette.nearestColor(original[i * stride + j]);
 
         // Smooth the colors
         numColors = 5;
         palette.condense(numColors);// Further decrease palette size.
 
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                result[i][j] = palette.nearestColor(result[i][j]);
-            }
-        }
-        return (new Picture(result)).getImage();
+        for (int i = 0; i < width * height; i++)
+            result[i] = palette.nearestColor(result[i]);
     }
 
     /**
-     * Increase saturation of picture.
+     * Quantize the colors of picture with ordered dithering instead of hard nearest color mapping, which trades the
+     * banding of smooth gradients for a fine pattern.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the initial palette
+     * @param dither    dither matrix, eg. OrderedDither.bayer(8)
+     * @return transformed picture
+     */
+    public static BufferedImage colorQuantization(Picture picture, int numColors, OrderedDither dither) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        colorQuantizationRows(picture, numColors, dither, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply dithered color quantization to a whole picture. Pixels are dithered straight onto the condensed palette.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the initial palette
+     * @param dither    dither matrix
+     * @param result    packed ARGB raster to write to, with stride equal to the width
+     */
+    static void colorQuantizationRows(Picture picture, int numColors, OrderedDither dither, int[] result) {
+        KMeansPalette palette = quantizationPalette(picture, numColors);
+        palette.condense(5);
+        dither.apply(picture, palette.getColormap(), ForkJoinPool.commonPool(), result);
+    }
+
+    /**
+     * Quantize the colors of picture with error diffusion instead of hard nearest color mapping.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the initial palette
+     * @param diffusion error diffusion kernel, eg. ErrorDiffusion.FLOYD_STEINBERG
+     * @return transformed picture
+     */
+    public static BufferedImage colorQuantization(Picture picture, int numColors, ErrorDiffusion diffusion) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        colorQuantizationRows(picture, numColors, diffusion, result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Apply error diffused color quantization to a whole picture. Pixels are dithered straight onto the condensed
+     * palette.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the initial palette
+     * @param diffusion error diffusion kernel
+     * @param result    packed ARGB raster to write to, with stride equal to the width
+     */
+    static void colorQuantizationRows(Picture picture, int numColors, ErrorDiffusion diffusion, int[] result) {
+        KMeansPalette palette = quantizationPalette(picture, numColors);
+        palette.condense(5);
+        diffusion.apply(picture, palette.getColormap(), ForkJoinPool.commonPool(), result);
+    }
+
+    /**
+     * Build the initial palette of color quantization.
+     *
+     * @param picture   Picture to be transformed
+     * @param numColors number of colors of the palette
+     * @return palette of the picture
+     */
+    private static KMeansPalette quantizationPalette(Picture picture, int numColors) {
+        if (picture.getWidth() * picture.getHeight() <= MINI_BATCH_MIN_PIXELS)
+            return new KMeansPalette(picture.downsample().getPixels(), numColors);
+
+        // Flat-shaded pictures reduce to a few thousand binned colors, which weighted K-means clusters exactly.
+        // Noisy pictures with too many colors fall back to sampling pixels.
+        ColorHistogram histogram = new ColorHistogram(picture, HISTOGRAM_BITS);
+        return histogram.size() <= HISTOGRAM_MAX_COLORS
+                ? new KMeansPalette(histogram, numColors)
+                : new KMeansPalette(picture, numColors, KMeansPalette.DEFAULT_BATCH_SIZE,
+                KMeansPalette.DEFAULT_BATCH_ITERATIONS);
+    }
+
+    /**
+     * Map every pixel to its nearest color in a fixed palette, such as one read with FixedPalette.read().
      *
      * @param picture Picture to be transformed
+     * @param palette palette to map to
+     * @return transformed picture
      */
-    public static void increaseSaturation(Picture picture) {
+    public static BufferedImage paletteFilter(Picture picture, FixedPalette palette) {
         int width = picture.getWidth();
         int height = picture.getHeight();
 
-        Pixel[][] pixels = picture.getPixels();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixels[i][j].increaseSaturation(1.5f);
-            }
-        }
+        int[] original = picture.getRaster();
+        int stride = picture.getStride();
+        int[] result = new int[width * height];
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                result[i * width + j] = palette.nearestColor(original[i * stride + j]);
+
+        return (new Picture(result, width, height)).getImage();
     }
 
     /**
-     * Increase contrast of picture.
+     * Map every pixel to a fixed palette with ordered dithering.
      *
-     * @param picture Picture to transform
+     * @param picture Picture to be transformed
+     * @param palette palette to map to
+     * @param dither  dither matrix, eg. OrderedDither.blueNoise(64)
+     * @return transformed picture
      */
-    public static void increaseContrast(Picture picture) {
+    public static BufferedImage paletteFilter(Picture picture, FixedPalette palette, OrderedDither dither) {
         int width = picture.getWidth();
         int height = picture.getHeight();
+        int[] result = new int[width * height];
 
-        Pixel[][] pixels = picture.getPixels();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixels[i][j].increaseContrast(20);
-            }
-        }
+        dither.apply(picture, palette.getColormap(), ForkJoinPool.commonPool(), result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Map every pixel to a fixed palette with error diffusion.
+     *
+     * @param picture   Picture to be transformed
+     * @param palette   palette to map to
+     * @param diffusion error diffusion kernel, eg. ErrorDiffusion.ATKINSON
+     * @return transformed picture
+     */
+    public static BufferedImage paletteFilter(Picture picture, FixedPalette palette, ErrorDiffusion diffusion) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] result = new int[width * height];
+
+        diffusion.apply(picture, palette.getColormap(), ForkJoinPool.commonPool(), result);
+
+        return (new Picture(result, width, height)).getImage();
+    }
+
+    /**
+     * Increase saturation of picture, through the table of getSaturationLut().
+     *
+     * @param picture Picture to be transformed
+     */
+    public static void increaseSaturation(Picture picture) {
+        getSaturationLut().apply(picture.getRaster(), picture.getWidth(), picture.getHeight(), picture.getStride());
+        picture.invalidatePyramid();
+    }
+
+    /**
+     * Increase saturation of a single color. This is the exact transform sampled by getSaturationLut().
+     *
+     * @param argb packed ARGB value
+     * @return packed ARGB value of the saturated color, opaque
+     */
+    public static int saturate(int argb) {
+        return ColorMath.changeSaturation(new int[]{(argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF}, 1.5f);
+    }
+
+    /**
+     * Get the 3D table increasing saturation, built on first use.
+     *
+     * @return saturation table
+     */
+    public static ColorLut getSaturationLut() {
+        return Luts.SATURATION;
+    }
+
+    /**
+     * Increase contrast of picture, through the table of getContrastLut().
+     *
+     * @param picture Picture to transform
+     */
+    public static void increaseContrast(Picture picture) {
+        getContrastLut().apply(picture.getRaster(), picture.getWidth(), picture.getHeight(), picture.getStride());
+        picture.invalidatePyramid();
+    }
+
+    /**
+     * Increase contrast of a single color. This is the exact transform sampled by getContrastLut().
+     *
+     * @param argb packed ARGB value
+     * @return packed ARGB value of the contrasted color, opaque
+     */
+    public static int contrast(int argb) {
+        return ColorMath.changeContrast(new int[]{(argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF}, 20);
+    }
+
+    /**
+     * Get the 1D table increasing contrast, built on first use.
+     *
+     * @return contrast table
+     */
+    public static ColorLut getContrastLut() {
+        return Luts.CONTRAST;
+    }
+
+    /**
+     * Holder of the color tables, so that they are only built when first used.
+     */
+    private static class Luts {
+        // Contrast maps every channel on its own, so its table is exact. A 52 point grid samples saturation exactly
+        // at every fifth level and stays within 3 levels of it in between.
+        static final ColorLut CONTRAST = new ColorLut("Pixelate contrast", PictureFilter::contrast);
+        static final ColorLut SATURATION = new ColorLut("Pixelate saturation", 52, PictureFilter::saturate);
     }
 }
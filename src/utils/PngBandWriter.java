@@ -0,0 +1,142 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an 8-bit RGB PNG one band of rows at a time. Rows are compressed as they arrive and flushed in IDAT chunks,
+ * so only a chunk's worth of compressed data is held in memory, whatever the size of the picture. ImageIO writers
+ * need the whole picture up front, which is why this is needed for pictures larger than the heap.
+ */
+public class PngBandWriter implements AutoCloseable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final DeflaterOutputStream data;
+    private final Deflater deflater;
+    private final int width, height;
+    private final byte[] row;
+    private int rowsWritten;
+
+    /**
+     * Constructor. Writes the PNG header. The stream is closed when the writer is closed.
+     *
+     * @param out    stream to write the PNG to
+     * @param width  width of the picture
+     * @param height height of the picture
+     * @throws IOException if the header cannot be written
+     */
+    public PngBandWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(header);
+        fields.writeInt(width);
+        fields.writeInt(height);
+        fields.writeByte(8); // Bit depth
+        fields.writeByte(2); // Color type: RGB
+        fields.writeByte(0); // Compression: deflate
+        fields.writeByte(0); // Filter method: adaptive
+        fields.writeByte(0); // Interlace: none
+        writeChunk("IHDR", header.toByteArray(), 0, header.size());
+
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        data = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Append rows to the picture. The alpha byte of every pixel is ignored.
+     *
+     * @param raster packed ARGB raster holding the rows
+     * @param offset index of the first pixel of the first row in the raster
+     * @param stride row stride of the raster
+     * @param rows   number of rows to append
+     * @throws IOException if the rows cannot be written
+     */
+    public void writeRows(int[] raster, int offset, int stride, int rows) throws IOException {
+        if (rowsWritten + rows > height)
+            throw new IllegalStateException("Writing " + rows + " rows would exceed the height of " + height);
+
+        for (int i = 0; i < rows; i++) {
+            // The Sub filter stores each byte as the difference to the same channel of the pixel on its left.
+            row[0] = FILTER_SUB;
+            int previous = 0;
+            for (int j = 0, index = offset + i * stride, k = 1; j < width; j++, index++, k += 3) {
+                int rgb = raster[index];
+                row[k] = (byte) ((rgb >> 16) - (previous >> 16));
+                row[k + 1] = (byte) ((rgb >> 8) - (previous >> 8));
+                row[k + 2] = (byte) (rgb - previous);
+                previous = rgb;
+            }
+            data.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Finish the picture and close the stream. All rows must have been written.
+     *
+     * @throws IOException if the picture cannot be finished
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height)
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+            data.finish();
+            writeChunk("IEND", new byte[0], 0, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Write a chunk with its length and checksum.
+     *
+     * @param type   four letter chunk type
+     * @param bytes  buffer holding the chunk data
+     * @param offset index of the chunk data in the buffer
+     * @param length length of the chunk data
+     * @throws IOException if the chunk cannot be written
+     */
+    private void writeChunk(String type, byte[] bytes, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(bytes, offset, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(bytes, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Receives the compressed rows and writes them out as IDAT chunks.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0)
+                writeChunk("IDAT", bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package utils;
+
+import models.Picture;
+import models.Pixel;
+import models.palette.FixedPalette;
+import models.palette.InverseColormap;
+import models.palette.KMeansPalette;
+import models.palette.Palette;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Applies local filters to pictures too large to hold in memory. The input is decoded one horizontal band at a time
+ * through the source region of an ImageReader, together with the halo rows the filter needs above and below it, and
+ * every filtered band is written straight to a PNG. Peak memory is proportional to the band height rather than the
+ * picture height.
+ * <p>
+ * The streamed filters give the same result as their PictureFilter counterparts on the whole picture.
+ */
+public class StreamingFilter {
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    /**
+     * Filter applied to one band of a picture at a time. Bands are passed in order from top to bottom, so a filter
+     * may carry state from one band to the next; such a filter must not be reused for another picture.
+     */
+    public interface BandFilter {
+        /**
+         * Get the number of rows of context the filter needs above and below every band.
+         *
+         * @return number of halo rows
+         */
+        int getHalo();
+
+        /**
+         * Get the number of rows every band but the last must be a multiple of, eg. the size of a grid.
+         *
+         * @return band height alignment
+         */
+        int getAlignment();
+
+        /**
+         * Filter a band.
+         *
+         * @param band   rows of the band, preceded and followed by up to getHalo() halo rows
+         * @param top    index in the band of the first row to filter
+         * @param rows   number of rows to filter
+         * @param result packed ARGB raster to write the filtered rows to, with stride equal to the width
+         */
+        void apply(Picture band, int top, int rows, int[] result);
+    }
+
+    /**
+     * Filter an image file band by band into a PNG file, using the default band height.
+     *
+     * @param input  image file to read
+     * @param output PNG file to write
+     * @param filter filter to apply
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    public static void filter(File input, File output, BandFilter filter) throws IOException {
+        filter(input, output, filter, DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Filter an image file band by band into a PNG file.
+     *
+     * @param input      image file to read
+     * @param output     PNG file to write
+     * @param filter     filter to apply
+     * @param bandHeight number of rows filtered at a time, rounded up to the filter's alignment
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    public static void filter(File input, File output, BandFilter filter, int bandHeight) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            if (in == null)
+                throw new IOException("Cannot open " + input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                throw new IOException("No image reader for " + input);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                int width = reader.getWidth(0), height = reader.getHeight(0);
+                int alignment = filter.getAlignment();
+                bandHeight = Math.max(alignment, (bandHeight + alignment - 1) / alignment * alignment);
+                int[] result = new int[width * Math.min(bandHeight, height)];
+
+                try (PngBandWriter writer = new PngBandWriter(
+                        new BufferedOutputStream(new FileOutputStream(output)), width, height)) {
+                    for (int top = 0; top < height; top += bandHeight) {
+                        int rows = Math.min(bandHeight, height - top);
+                        int readTop = Math.max(0, top - filter.getHalo());
+                        int readBottom = Math.min(height, top + rows + filter.getHalo());
+
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, readTop, width, readBottom - readTop));
+                        Picture band = new Picture(reader.read(0, param));
+
+                        filter.apply(band, top - readTop, rows, result);
+                        writer.writeRows(result, 0, width, rows);
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Streamed counterpart of PictureFilter.gridSpaceFilter().
+     *
+     * @return band filter
+     */
+    public static BandFilter gridSpaceFilter() {
+        return new GridFilter(4) {
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                PictureFilter.gridSpaceRows(band, result);
+            }
+        };
+    }
+
+    /**
+     * Streamed counterpart of PictureFilter.gridSpaceFilter2().
+     *
+     * @return band filter
+     */
+    public static BandFilter gridSpaceFilter2() {
+        return new GridFilter(4) {
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                PictureFilter.gridSpace2Rows(band, result);
+            }
+        };
+    }
+
+    /**
+     * Streamed counterpart of PictureFilter.gridDifferenceFilter(). The palette built from the blocks seen so far is
+     * carried from band to band, so the returned filter must only be used for a single picture.
+     *
+     * @param blockSize side of the square blocks, at least 1
+     * @return band filter
+     * @throws IllegalArgumentException if the block size is less than 1
+     */
+    public static BandFilter gridDifferenceFilter(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1, got " + blockSize);
+        return new GridFilter(blockSize) {
+            private final Palette palette = new Palette();
+            private Pixel currentColor;
+
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                currentColor = PictureFilter.gridDifferenceRows(band, blockSize, palette, currentColor, result);
+            }
+        };
+    }
+
+    /**
+     * Streamed counterpart of PictureFilter.gridWeightFilter() with a 5x5 grid.
+     *
+     * @param midWeight      weight of middle pixel
+     * @param neighborWeight weight of neighbor pixels
+     * @return band filter
+     */
+    public static BandFilter gridWeightFilter(double midWeight, double neighborWeight) {
+        return gridWeightFilter(2, midWeight, neighborWeight);
+    }
+
+    /**
+     * Streamed counterpart of PictureFilter.gridWeightFilter(). Each band is filtered in parallel on the common
+     * fork/join pool.
+     *
+     * @param radius         distance from the middle pixel to the edge of the grid
+     * @param midWeight      weight of middle pixel
+     * @param neighborWeight weight of neighbor pixels
+     * @return band filter
+     */
+    public static BandFilter gridWeightFilter(int radius, double midWeight, double neighborWeight) {
+        final double mid = (midWeight == 0 ? PictureFilter.DEFAULT_MID_WEIGHT : midWeight);
+        final double neighbor = (neighborWeight == 0 ? PictureFilter.DEFAULT_NEIGHBOR_WEIGHT : neighborWeight);
+
+        return new BandFilter() {
+            @Override
+            public int getHalo() {
+                return radius;
+            }
+
+            @Override
+            public int getAlignment() {
+                return 1;
+            }
+
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                SummedAreaTable table = new SummedAreaTable(band);
+                ParallelRows.forEachBand(rows, (startRow, endRow) ->
+                        PictureFilter.gridWeightRows(band.getRaster(), band.getStride(), table, result, top, radius,
+                                mid, neighbor, top + startRow, top + endRow));
+            }
+        };
+    }
+
+    /**
+     * Map every pixel to its nearest color in an already built palette, through its inverse colormap.
+     *
+     * @param palette palette to map to
+     * @return band filter
+     */
+    public static BandFilter paletteFilter(KMeansPalette palette) {
+        return colormapFilter(palette.getColormap());
+    }
+
+    /**
+     * Map every pixel to its nearest color in a fixed palette.
+     *
+     * @param palette palette to map to
+     * @return band filter
+     */
+    public static BandFilter paletteFilter(FixedPalette palette) {
+        return colormapFilter(palette.getColormap());
+    }
+
+    /**
+     * Map every pixel to a fixed palette with ordered dithering. The matrix is tiled from the top of the picture, so
+     * the result is the same as PictureFilter.paletteFilter() with the same matrix.
+     *
+     * @param palette palette to map to
+     * @param dither  dither matrix
+     * @return band filter
+     */
+    public static BandFilter paletteFilter(FixedPalette palette, OrderedDither dither) {
+        InverseColormap colormap = palette.getColormap();
+        int[] offsets = dither.getOffsets(OrderedDither.getSpread(colormap));
+        return new GridFilter(1) {
+            private int firstRow; // Row of the picture the next band starts at.
+
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                int bandRow = firstRow;
+                ParallelRows.forEachBand(rows, (startRow, endRow) ->
+                        dither.applyRows(band, colormap, offsets, bandRow, startRow, endRow, result));
+                firstRow += rows;
+            }
+        };
+    }
+
+    /**
+     * Map every pixel to its nearest color in an inverse colormap.
+     *
+     * @param colormap inverse colormap of the palette to map to
+     * @return band filter
+     */
+    private static BandFilter colormapFilter(InverseColormap colormap) {
+        return new GridFilter(1) {
+            @Override
+            public void apply(Picture band, int top, int rows, int[] result) {
+                int width = band.getWidth();
+                int[] raster = band.getRaster();
+                int stride = band.getStride();
+                for (int i = 0; i < rows; i++)
+                    for (int j = 0; j < width; j++)
+                        result[i * width + j] = colormap.nearestColor(raster[i * stride + j]);
+            }
+        };
+    }
+
+    /**
+     * Filter that needs no halo and works on bands aligned to a grid.
+     */
+    private abstract static class GridFilter implements BandFilter {
+        private final int gridSize;
+
+        /**
+         * Constructor.
+         *
+         * @param gridSize side of the grid cells
+         */
+        GridFilter(int gridSize) {
+            this.gridSize = gridSize;
+        }
+
+        @Override
+        public int getHalo() {
+            return 0;
+        }
+
+        @Override
+        public int getAlignment() {
+            return gridSize;
+        }
+    }
+}
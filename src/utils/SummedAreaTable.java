@@ -0,0 +1,137 @@
+package utils;
+
+import models.Picture;
+
+/**
+ * Summed-area table (integral image) over the four channels of a packed ARGB raster. Gives the sum of any channel over
+ * any rectangle in constant time, regardless of its size.
+ * <p>
+ * The prefix sums are kept in ints and allowed to overflow: window sums are differences of prefix sums, and modular
+ * arithmetic keeps them exact as long as the window itself sums to less than 2^31, ie. windows of up to 8 million
+ * pixels.
+ */
+public class SummedAreaTable {
+    public static final int ALPHA = 0, RED = 1, GREEN = 2, BLUE = 3;
+
+    private static final int CHANNELS = 4;
+
+    private final int[] table; // Interleaved ARGB prefix sums, (width + 1) * (height + 1) entries per channel.
+    private final int width, height, rowLength;
+
+    /**
+     * Constructor. Builds the table for a picture.
+     *
+     * @param picture Picture to sum
+     */
+    public SummedAreaTable(Picture picture) {
+        this(picture.getRaster(), picture.getWidth(), picture.getHeight(), picture.getStride());
+    }
+
+    /**
+     * Constructor. Builds the table for a packed ARGB raster.
+     *
+     * @param raster packed ARGB raster in row-major order
+     * @param width  width of the raster
+     * @param height height of the raster
+     * @param stride row stride of the raster
+     */
+    public SummedAreaTable(int[] raster, int width, int height, int stride) {
+        this.width = width;
+        this.height = height;
+        this.rowLength = (width + 1) * CHANNELS;
+        this.table = new int[rowLength * (height + 1)];
+
+        for (int i = 0; i < height; i++) {
+            int alpha = 0, red = 0, green = 0, blue = 0;
+            int above = i * rowLength + CHANNELS, current = above + rowLength;
+
+            for (int j = 0; j < width; j++, above += CHANNELS, current += CHANNELS) {
+                int argb = raster[i * stride + j];
+                alpha += (argb >> 24) & 0xFF;
+                red += (argb >> 16) & 0xFF;
+                green += (argb >> 8) & 0xFF;
+                blue += argb & 0xFF;
+
+                table[current] = table[above] + alpha;
+                table[current + 1] = table[above + 1] + red;
+                table[current + 2] = table[above + 2] + green;
+                table[current + 3] = table[above + 3] + blue;
+            }
+        }
+    }
+
+    /**
+     * Sum a channel over the rectangle [top, bottom) x [left, right). The rectangle must lie within the raster.
+     *
+     * @param channel one of ALPHA, RED, GREEN, BLUE
+     * @param top     first row, inclusive
+     * @param left    first column, inclusive
+     * @param bottom  last row, exclusive
+     * @param right   last column, exclusive
+     * @return sum of the channel over the rectangle
+     */
+    public int sum(int channel, int top, int left, int bottom, int right) {
+        int topRow = top * rowLength + channel, bottomRow = bottom * rowLength + channel;
+        return table[bottomRow + right * CHANNELS] - table[topRow + right * CHANNELS]
+                - table[bottomRow + left * CHANNELS] + table[topRow + left * CHANNELS];
+    }
+
+    /**
+     * Sum all four channels over the rectangle [top, bottom) x [left, right). The rectangle must lie within the
+     * raster.
+     *
+     * @param top    first row, inclusive
+     * @param left   first column, inclusive
+     * @param bottom last row, exclusive
+     * @param right  last column, exclusive
+     * @param sums   array of at least 4 entries that receives the {alpha, red, green, blue} sums
+     */
+    public void sum(int top, int left, int bottom, int right, int[] sums) {
+        int topLeft = top * rowLength + left * CHANNELS, topRight = top * rowLength + right * CHANNELS,
+                bottomLeft = bottom * rowLength + left * CHANNELS, bottomRight = bottom * rowLength + right * CHANNELS;
+
+        for (int c = 0; c < CHANNELS; c++)
+            sums[c] = table[bottomRight + c] - table[topRight + c] - table[bottomLeft + c] + table[topLeft + c];
+    }
+
+    /**
+     * Average all four channels over the rectangle [top, bottom) x [left, right), truncating each channel. The
+     * rectangle must lie within the raster and must not be empty.
+     *
+     * @param top    first row, inclusive
+     * @param left   first column, inclusive
+     * @param bottom last row, exclusive
+     * @param right  last column, exclusive
+     * @return packed ARGB average of the rectangle
+     */
+    public int average(int top, int left, int bottom, int right) {
+        int topLeft = top * rowLength + left * CHANNELS, topRight = top * rowLength + right * CHANNELS,
+                bottomLeft = bottom * rowLength + left * CHANNELS, bottomRight = bottom * rowLength + right * CHANNELS;
+        double weight = 1.0 / ((bottom - top) * (right - left));
+
+        int argb = 0;
+        for (int c = 0; c < CHANNELS; c++) {
+            int sum = table[bottomRight + c] - table[topRight + c] - table[bottomLeft + c] + table[topLeft + c];
+            argb = (argb << 8) | (((int) (sum * weight)) & 0xFF);
+        }
+        return argb;
+    }
+
+    /**
+     * Get the width of the summed raster.
+     *
+     * @return width of the raster
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the summed raster.
+     *
+     * @return height of the raster
+     */
+    public int getHeight() {
+        return height;
+    }
+}